@@ -0,0 +1,86 @@
+package hywt.maplemandel.ui;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// 帧缓冲中被修改过的方块，绘制线程写入像素后标记，界面线程每帧取出并合并成矩形
+// 从没有脏方块变为有脏方块时调用onDirty，取出之前再有标记不会重复调用
+final class DirtyTiles {
+    static final int TILE = 32;
+
+    private final int width;
+    private final int height;
+    private final int cols;
+    private final int rows;
+    private final AtomicIntegerArray dirty;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final Runnable onDirty;
+
+    DirtyTiles(int width, int height, Runnable onDirty) {
+        this.width = width;
+        this.height = height;
+        this.cols = (width + TILE - 1) / TILE;
+        this.rows = (height + TILE - 1) / TILE;
+        this.dirty = new AtomicIntegerArray(cols * rows);
+        this.onDirty = onDirty;
+    }
+
+    void mark(int x, int y, int w, int h) {
+        int x0 = Math.max(x, 0) / TILE;
+        int y0 = Math.max(y, 0) / TILE;
+        int x1 = (Math.min(x + w, width) - 1) / TILE;
+        int y1 = (Math.min(y + h, height) - 1) / TILE;
+        for (int ty = y0; ty <= y1; ty++) {
+            for (int tx = x0; tx <= x1; tx++) {
+                int i = ty * cols + tx;
+                if (dirty.get(i) == 0) dirty.set(i, 1);
+            }
+        }
+        if (!pending.get() && pending.compareAndSet(false, true)) onDirty.run();
+    }
+
+    // 取出并清除所有脏方块，同一行相邻的方块合并，上下相邻且左右边界相同的再合并，坐标为帧缓冲中的像素
+    // 先清除pending，之后的标记会再次触发onDirty
+    List<Rectangle> drain() {
+        pending.set(false);
+        List<Rectangle> rects = new ArrayList<>();
+        List<Rectangle> open = new ArrayList<>();
+        List<Rectangle> next = new ArrayList<>();
+        for (int ty = 0; ty < rows; ty++) {
+            next.clear();
+            int tx = 0;
+            while (tx < cols) {
+                if (dirty.getAndSet(ty * cols + tx, 0) == 0) {
+                    tx++;
+                    continue;
+                }
+                int start = tx++;
+                while (tx < cols && dirty.getAndSet(ty * cols + tx, 0) != 0) tx++;
+                int x = start * TILE;
+                int w = Math.min(tx * TILE, width) - x;
+                int y = ty * TILE;
+                int h = Math.min(y + TILE, height) - y;
+                Rectangle rect = null;
+                for (Rectangle r : open) {
+                    if (r.x == x && r.width == w) {
+                        rect = r;
+                        rect.height += h;
+                        break;
+                    }
+                }
+                if (rect == null) {
+                    rect = new Rectangle(x, y, w, h);
+                    rects.add(rect);
+                }
+                next.add(rect);
+            }
+            List<Rectangle> t = open;
+            open = next;
+            next = t;
+        }
+        return rects;
+    }
+}
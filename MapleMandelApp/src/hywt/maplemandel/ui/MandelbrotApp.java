@@ -13,10 +13,14 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -46,16 +50,14 @@ public class MandelbrotApp extends JFrame {
 
         label = new JLabel("i");
 
-        panel.setOnComplete(() -> {
-            Mandelbrot mandelbrot = panel.getMandelbrot();
-            update(mandelbrot);
-            return null;
-        });
+        // 状态栏随绘制中的每一帧以及每个阶段结束时的统计更新，没有绘制时不做任何事
+        panel.setOnSnapshot(this::update);
         panel.startDraw();
 
         JMenuItem resetButton = new JMenuItem("重置");
         resetButton.addActionListener(e -> {
             try {
+                panel.getMandelbrot().cancelAndWait();
                 panel.getMandelbrot().gotoLocation(new DeepComplex(0, 0), new FloatExp(4));
                 panel.getMandelbrot().setMaxIter(256);
                 panel.startDraw();
@@ -68,6 +70,7 @@ public class MandelbrotApp extends JFrame {
         JMenuItem increaseIterationsButton = new JMenuItem("增加迭代次数");
         increaseIterationsButton.addActionListener(e -> {
             try {
+                panel.getMandelbrot().cancelAndWait();
                 panel.getMandelbrot().setMaxIter(panel.getMandelbrot().getMaxIter() * 2);
                 panel.startDraw();
                 panel.repaint();
@@ -76,8 +79,40 @@ public class MandelbrotApp extends JFrame {
             }
         });
 
+        JCheckBoxMenuItem autoIterationButton = new JCheckBoxMenuItem("自动迭代次数");
+        autoIterationButton.addActionListener(e -> {
+            panel.getMandelbrot().setAutoIteration(autoIterationButton.isSelected());
+            panel.startDraw();
+        });
+
+        JCheckBoxMenuItem nucleusButton = new JCheckBoxMenuItem("参考点定位到极小集核心");
+        nucleusButton.addActionListener(e -> {
+            panel.getMandelbrot().cancelAndWait();
+            panel.getMandelbrot().setNucleusReference(nucleusButton.isSelected());
+            panel.startDraw();
+        });
+
+        JMenuItem bailoutButton = new JMenuItem("逃逸半径");
+        bailoutButton.addActionListener(e -> {
+            String input = JOptionPane.showInputDialog(this, "逃逸半径", panel.getMandelbrot().getBailout());
+            if (input == null) return;
+            try {
+                double bailout = Double.parseDouble(input.trim());
+                if (bailout < 2) throw new NumberFormatException();
+                panel.getMandelbrot().cancelAndWait();
+                panel.getMandelbrot().setBailout(bailout);
+                panel.startDraw();
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "逃逸半径应为不小于2的数");
+            }
+        });
+
+        JMenu formulaMenu = createFormulaMenu();
+        JMenu colouringMenu = createColouringMenu();
+
         JMenuItem locationButton = createLocationBtn();
         JMenuItem storeSeqBtn = createStoreSeqBtn();
+        JMenuItem storePosterBtn = createStorePosterBtn();
 
         JMenu filesMenu = new JMenu("文件");
         JMenu loadMenu = new JMenu("加载");
@@ -88,6 +123,7 @@ public class MandelbrotApp extends JFrame {
         saveMenu.add(saveBtn);
         saveMenu.add(saveImgBtn);
         saveMenu.add(storeSeqBtn);
+        saveMenu.add(storePosterBtn);
         filesMenu.add(saveMenu);
 
         toolBar.add(filesMenu);
@@ -95,8 +131,13 @@ public class MandelbrotApp extends JFrame {
         JMenu paramMenu = new JMenu("参数");
         paramMenu.add(locationButton);
         paramMenu.add(increaseIterationsButton);
+        paramMenu.add(autoIterationButton);
+        paramMenu.add(nucleusButton);
+        paramMenu.add(bailoutButton);
         paramMenu.add(resetButton);
         toolBar.add(paramMenu);
+        toolBar.add(formulaMenu);
+        toolBar.add(colouringMenu);
 
         getContentPane().add(toolBar, BorderLayout.NORTH);
         getContentPane().add(label, BorderLayout.SOUTH);
@@ -104,21 +145,53 @@ public class MandelbrotApp extends JFrame {
         pack();
         // 显示窗口
         setVisible(true);
+    }
 
-        Thread drawThread = new Thread(() -> {
-            try {
-                Mandelbrot mandelbrot = panel.getMandelbrot();
-                while (true) {
-                    if (mandelbrot.isDrawing()) {
-                        update(mandelbrot);
-                    }
-                    Thread.sleep(50);
-                }
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        });
-        drawThread.start();
+    // 切换公式后回到初始视图，Julia集以切换时的视图中心为参数
+    private JMenu createFormulaMenu() {
+        JMenu formulaMenu = new JMenu("公式");
+        ButtonGroup group = new ButtonGroup();
+        JRadioButtonMenuItem mandelbrotButton = new JRadioButtonMenuItem(Formula.MANDELBROT.getName(), true);
+        mandelbrotButton.addActionListener(e -> switchFormula(Formula.MANDELBROT));
+        JRadioButtonMenuItem burningShipButton = new JRadioButtonMenuItem(Formula.BURNING_SHIP.getName());
+        burningShipButton.addActionListener(e -> switchFormula(Formula.BURNING_SHIP));
+        JRadioButtonMenuItem cubicButton = new JRadioButtonMenuItem(Formula.CUBIC.getName());
+        cubicButton.addActionListener(e -> switchFormula(Formula.CUBIC));
+        JRadioButtonMenuItem juliaButton = new JRadioButtonMenuItem("Julia（以当前中心为参数）");
+        juliaButton.addActionListener(e -> switchFormula(Formula.julia(panel.getMandelbrot().getCenter())));
+        for (JRadioButtonMenuItem item : new JRadioButtonMenuItem[]{mandelbrotButton, burningShipButton, cubicButton, juliaButton}) {
+            group.add(item);
+            formulaMenu.add(item);
+        }
+        return formulaMenu;
+    }
+
+    // 切换着色方式只重新着色，不重新计算像素
+    private JMenu createColouringMenu() {
+        JMenu colouringMenu = new JMenu("着色");
+        ButtonGroup group = new ButtonGroup();
+        String[] names = {"迭代次数", "直方图均衡", "对数密度"};
+        Colouring[] modes = {Colouring.ITERATION, Colouring.HISTOGRAM, Colouring.LOG_DENSITY};
+        for (int i = 0; i < modes.length; i++) {
+            Colouring mode = modes[i];
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(names[i], mode == panel.getMandelbrot().getColouring());
+            item.addActionListener(e -> {
+                panel.getMandelbrot().setColouring(mode);
+                panel.recolour();
+            });
+            group.add(item);
+            colouringMenu.add(item);
+        }
+        return colouringMenu;
+    }
+
+    private void switchFormula(Formula formula) {
+        Mandelbrot mandelbrot = panel.getMandelbrot();
+        mandelbrot.cancelAndWait();
+        mandelbrot.setFormula(formula);
+        mandelbrot.gotoLocation(new DeepComplex(0, 0), new FloatExp(4));
+        panel.startDraw();
+        panel.repaint();
     }
 
     private JMenuItem createStoreSeqBtn() {
@@ -132,7 +205,17 @@ public class MandelbrotApp extends JFrame {
                 int userSelection = fileChooser.showSaveDialog(null);
                 if (userSelection == JFileChooser.APPROVE_OPTION) {
                     File fileToSave = fileChooser.getSelectedFile();
-                    storeImageSeq(fileToSave);
+                    String input = JOptionPane.showInputDialog(null, "每倍缩放的帧数", 60);
+                    if (input == null) return;
+                    int framesPerOctave;
+                    try {
+                        framesPerOctave = Integer.parseInt(input.trim());
+                        if (framesPerOctave < 1) throw new NumberFormatException();
+                    } catch (NumberFormatException ex) {
+                        JOptionPane.showMessageDialog(null, "帧数应为正整数");
+                        return;
+                    }
+                    storeImageSeq(fileToSave, framesPerOctave);
                 }
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
@@ -141,6 +224,53 @@ public class MandelbrotApp extends JFrame {
         return storeSeqBtn;
     }
 
+    private JMenuItem createStorePosterBtn() {
+        JMenuItem storePosterBtn = new JMenuItem("大尺寸图像");
+        storePosterBtn.addActionListener(e -> {
+            String size = JOptionPane.showInputDialog(null, "尺寸（宽x高）", "8192x8192");
+            if (size == null) return;
+            String[] parts = size.toLowerCase().split("x");
+            int width, height;
+            try {
+                width = Integer.parseInt(parts[0].trim());
+                height = Integer.parseInt(parts[1].trim());
+            } catch (RuntimeException ex) {
+                JOptionPane.showMessageDialog(null, "尺寸格式错误！");
+                return;
+            }
+
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("保存图像");
+            fileChooser.setFileFilter(new FileNameExtensionFilter("PNG files", "png"));
+            if (fileChooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) return;
+            File file = fileChooser.getSelectedFile();
+            if (!file.getName().endsWith(".png")) file = new File(file.getAbsolutePath() + ".png");
+            storePoster(file, width, height);
+        });
+        return storePosterBtn;
+    }
+
+    // 分块绘制并流式写出PNG，不经过界面的BufferedImage
+    public void storePoster(File file, int width, int height) {
+        Mandelbrot mandelbrot = panel.getMandelbrot();
+        DeepComplex center = mandelbrot.getCenter();
+        FloatExp scale = mandelbrot.getScale();
+        int maxIter = mandelbrot.getMaxIter();
+        new Thread(() -> {
+            ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+                TiledRenderer renderer = TiledRenderer.compute(center, scale, maxIter, width, height, 256);
+                renderer.render(pool, new PngImageSink(os));
+                JOptionPane.showMessageDialog(null, "图像已保存为 " + file.getAbsolutePath());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(null, "保存图像时出错！");
+            } finally {
+                pool.shutdown();
+            }
+        }).start();
+    }
+
     private JMenuItem createLocationBtn() {
         JMenuItem locationButton = new JMenuItem("位置");
         locationButton.addActionListener(e -> {
@@ -152,6 +282,7 @@ public class MandelbrotApp extends JFrame {
                 int result = JOptionPane.showConfirmDialog(null, locationPanel, "位置",
                         JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
                 if (result == JOptionPane.OK_OPTION) {
+                    panel.getMandelbrot().cancelAndWait();
                     panel.getMandelbrot().gotoLocation(locationPanel.getPos(), locationPanel.getScale());
                     panel.getMandelbrot().setMaxIter(locationPanel.getIterations());
                     panel.startDraw();
@@ -204,6 +335,7 @@ public class MandelbrotApp extends JFrame {
                 File fileToSave = fileChooser.getSelectedFile();
                 try {
                     InputStream is = new GZIPInputStream(new FileInputStream(fileToSave));
+                    panel.getMandelbrot().cancelAndWait();
                     panel.getMandelbrot().loadParameter(Parameter.load(is));
                     is.close();
                     JOptionPane.showMessageDialog(null, "加载成功");
@@ -245,15 +377,14 @@ public class MandelbrotApp extends JFrame {
         return saveBtn;
     }
 
-    private void update(Mandelbrot mandelbrot) {
-        panel.repaint();
-        MandelbrotStats stats = mandelbrot.getStats();
-        double guessed = (double) stats.getGuessed().get() / stats.getTotalPixels();
-        double ref = (double) stats.getRefIter().get() / mandelbrot.getMaxIter();
-        double approx = (double) stats.getApprox().get() / stats.getRefIter().get();
-        double percent = (double) stats.getDrawn().get() / stats.getTotalPixels();
-        long time = System.currentTimeMillis() - stats.getStartTime().get();
-        Duration duration = Duration.ofMillis(time);
+    // 在界面线程中调用
+    private void update(StatsSnapshot stats) {
+        Mandelbrot mandelbrot = panel.getMandelbrot();
+        double guessed = (double) stats.guessed / stats.totalPixels;
+        double ref = (double) stats.refIter / mandelbrot.getMaxIter();
+        double approx = (double) stats.approx / stats.refIter;
+        double percent = (double) stats.drawn / stats.totalPixels;
+        Duration duration = Duration.ofMillis(stats.elapsedNanos / 1000000);
         label.setText(String.format(
                 "%.1f%%  Ref: %.1f%%  Approx: %.1f%%  Guessed: %.1f%%  Time: %s  Zoom: %s  It: %d  ",
                 percent * 100,
@@ -266,48 +397,57 @@ public class MandelbrotApp extends JFrame {
         );
     }
 
-    public void storeImageSeq(File dir) {
+    // 从初始视图缩放到当前视图的视频帧，每倍缩放framesPerOctave帧，按从外到内的顺序写出
+    // 每倍缩放只绘制一条指数映射行带，帧由相邻的行带插值得到
+    public void storeImageSeq(File dir, int framesPerOctave) {
+        Mandelbrot mandelbrot = panel.getMandelbrot();
+        mandelbrot.cancelAndWait();
+        DeepComplex center = mandelbrot.getCenter();
+        FloatExp scale = mandelbrot.getScale();
+        FloatExp outer = new FloatExp(4);
+        if (scale.compareTo(outer) > 0) outer = scale;
+        FloatExp outerScale = outer;
+        int maxIter = mandelbrot.getMaxIter();
+        int width = panel.getImage().getWidth();
+        int height = panel.getImage().getHeight();
         new Thread(() -> {
-            int ord = 0;
-            panel.setEnabled(false);
-            Mandelbrot mandelbrot = panel.getMandelbrot();
-            mandelbrot.cancel();
+            ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
             try {
                 OutputStream os = new GZIPOutputStream(new FileOutputStream(new File(dir, "meta.mpr")));
                 mandelbrot.getParameter().save(os);
                 os.close();
-                while (true) {
-                    panel.startDraw();
-                    BufferedImage img = panel.getImage();
-                    ImageIO.write(img, "png", new File(dir, String.format("%05d_%s.png", ord, new FloatExp(4).div(mandelbrot.getScale()))));
-                    if (mandelbrot.getScale().compareTo(new FloatExp(10)) > 0) {
-                        break;
+                ExpMapRenderer renderer = ExpMapRenderer.compute(center, outerScale, scale, maxIter, width, height);
+                ZoomSequence sequence = new ZoomSequence(renderer, framesPerOctave, PngImageSink::new);
+                sequence.render(pool, (index, data) -> {
+                    try (OutputStream out = new FileOutputStream(new File(dir, String.format("%05d.png", index)))) {
+                        out.write(data);
                     }
-                    int lastIt = mandelbrot.getMaxIter();
-                    int newIt = Math.max(2048, mandelbrot.getStats().getApprox().get() * 25);
-                    if (newIt < lastIt) mandelbrot.setMaxIter(newIt);
-                    mandelbrot.zoomOut();
-                    ord++;
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                });
+                JOptionPane.showMessageDialog(null, "已保存 " + sequence.getFramesWritten() + " 帧到 " + dir.getAbsolutePath());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(null, "保存图像时出错！");
             } finally {
-                panel.setEnabled(true);
+                pool.shutdown();
             }
-
         }).start();
     }
 
 }
 
 class DrawingPanel extends JPanel {
+    // 绘制中每秒最多刷新的帧数
+    private static final int MAX_FPS = 30;
+
     private BufferedImage image;
     private Mandelbrot mandelbrot;
     private Callable<Void> onComplete;
+    private Consumer<StatsSnapshot> onSnapshot;
     private boolean enabled;
     private DrawCall draw;
-
-    private long startTime;
+    private final DirtyTiles dirty;
+    private final Timer frameTimer;
+    private long lastFrame;
 
     public DrawingPanel() throws Exception {
         int width = 640;
@@ -316,21 +456,38 @@ class DrawingPanel extends JPanel {
         // 创建一个BufferedImage
         image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2d = image.createGraphics();
+
+        // 绘制线程只标记修改过的方块，第一次标记时安排下一帧，每帧只重绘这些方块
+        frameTimer = new Timer(0, e -> paintFrame());
+        frameTimer.setRepeats(false);
+        dirty = new DirtyTiles(width, height, () -> SwingUtilities.invokeLater(this::scheduleFrame));
         draw = new DrawCall(image.getWidth(), image.getHeight()) {
             @Override
             public synchronized void draw(int x, int y, int w, int h, Color c) {
                 g2d.setColor(Utils.toAwtColor(c));
                 g2d.fillRect(x,y,w,h);
+                dirty.mark(x, y, w, h);
             }
 
             @Override
             public synchronized void draw(int x, int y, Color c) {
                 image.setRGB(x,y,c.getRGB());
+                dirty.mark(x, y, 1, 1);
+            }
+
+            @Override
+            public void snapshot(StatsSnapshot snapshot) {
+                SwingUtilities.invokeLater(() -> {
+                    if (onSnapshot != null) onSnapshot.accept(snapshot);
+                });
             }
         };
 
         mandelbrot = new Mandelbrot(width, height);
         mandelbrot.setMultiThreaded(true);
+        // 参考轨道缓存，上限1GB
+        mandelbrot.setOrbitCache(new OrbitCache(
+                Paths.get(System.getProperty("user.home"), ".maplemandel", "orbits"), 1L << 30));
         enabled = true;
 
         addMouseListener(new MouseAdapter() {
@@ -343,6 +500,8 @@ class DrawingPanel extends JPanel {
                     int originalX = (int) ((e.getX() - bounds.x) / (double) bounds.width * image.getWidth());
                     int originalY = (int) ((e.getY() - bounds.y) / (double) bounds.height * image.getHeight());
 
+                    // 先停止正在进行的绘制并等它的工作线程退出，再修改视图
+                    mandelbrot.cancelAndWait();
                     if (SwingUtilities.isLeftMouseButton(e)) {
                         mandelbrot.zoomIn(originalX, originalY);
                     } else if (SwingUtilities.isRightMouseButton(e)) {
@@ -358,6 +517,30 @@ class DrawingPanel extends JPanel {
         });
     }
 
+    // 距上一帧不足1/MAX_FPS秒时推迟到那时
+    private void scheduleFrame() {
+        long wait = lastFrame + 1000 / MAX_FPS - System.currentTimeMillis();
+        frameTimer.setInitialDelay((int) Math.max(0, wait));
+        frameTimer.restart();
+    }
+
+    // 把脏方块换算到面板坐标后立即重绘，多扩一个像素以包含双线性插值用到的相邻像素
+    // 不用repaint(x,y,w,h)：RepaintManager会把同一组件的多个区域并成一个外接矩形
+    private void paintFrame() {
+        lastFrame = System.currentTimeMillis();
+        Rectangle bounds = getImageBounds();
+        double sx = bounds.width / (double) image.getWidth();
+        double sy = bounds.height / (double) image.getHeight();
+        for (Rectangle r : dirty.drain()) {
+            int x0 = bounds.x + (int) Math.floor((r.x - 1) * sx);
+            int y0 = bounds.y + (int) Math.floor((r.y - 1) * sy);
+            int x1 = bounds.x + (int) Math.ceil((r.x + r.width + 1) * sx);
+            int y1 = bounds.y + (int) Math.ceil((r.y + r.height + 1) * sy);
+            paintImmediately(x0, y0, x1 - x0, y1 - y0);
+        }
+        if (onSnapshot != null && mandelbrot.isDrawing()) onSnapshot.accept(mandelbrot.getStats().snapshot());
+    }
+
     private Rectangle getImageBounds() {
         // 获取当前面板尺寸
         Dimension dimension = getSize();
@@ -395,10 +578,16 @@ class DrawingPanel extends JPanel {
         return image;
     }
 
-    public void startDraw() {
-        mandelbrot.cancel();
-        mandelbrot.startDraw(draw, onComplete);
+    public RenderHandle startDraw() {
+        RenderHandle handle = mandelbrot.startDraw(draw, onComplete);
         repaint();
+        return handle;
+    }
+
+    // 在新线程中按当前的着色方式重新着色，正在绘制时由绘制结束时的着色阶段处理
+    public void recolour() {
+        Thread thread = new Thread(() -> mandelbrot.recolour(draw), "recolour");
+        thread.start();
     }
 
     public Mandelbrot getMandelbrot() {
@@ -409,6 +598,11 @@ class DrawingPanel extends JPanel {
         onComplete = callable;
     }
 
+    // 在界面线程中收到统计：绘制中每一帧一次，以及每个阶段结束时
+    public void setOnSnapshot(Consumer<StatsSnapshot> consumer) {
+        onSnapshot = consumer;
+    }
+
     @Override
     public boolean isEnabled() {
         return enabled;
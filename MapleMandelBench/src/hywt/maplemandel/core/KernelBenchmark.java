@@ -0,0 +1,116 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// 在固定的8x8像素网格上比较double与FloatExp两种扰动循环，以及double循环的多通道版本
+// 加载向量模块以便同时比较VectorLaneKernel与ScalarLaneKernel
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class KernelBenchmark {
+    private static final int GRID = 8;
+
+    @Param({"shallow", "deep-1e50", "deep-1e300"})
+    public String location;
+
+    private Mandelbrot mandelbrot;
+    private Perturbation perturbation;
+    private int start;
+    private Complex[] deltas;
+    private Complex[] origins;
+    private FloatExpComplex[] deepDeltas;
+    private FloatExpComplex[] deepOrigins;
+    private double[] deltaRe;
+    private double[] deltaIm;
+    private double[] originRe;
+    private double[] originIm;
+    private double[] out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mandelbrot = new Mandelbrot(640, 360);
+        mandelbrot.loadParameter(Locations.load(location));
+        mandelbrot.prepare(640, 360);
+        mandelbrot.getReferenceOrbit().awaitComplete();
+        perturbation = mandelbrot.getPerturbation();
+
+        SeriesCoefficient coeff = mandelbrot.getCoefficient();
+        start = coeff.getIterationCount() > 2 ? coeff.getIterationCount() + 1 : 0;
+        deltas = new Complex[GRID * GRID];
+        origins = new Complex[GRID * GRID];
+        deepDeltas = new FloatExpComplex[GRID * GRID];
+        deepOrigins = new FloatExpComplex[GRID * GRID];
+        deltaRe = new double[GRID * GRID];
+        deltaIm = new double[GRID * GRID];
+        originRe = new double[GRID * GRID];
+        originIm = new double[GRID * GRID];
+        out = new double[GRID * GRID];
+        for (int i = 0; i < GRID * GRID; i++) {
+            FloatExpComplex c = mandelbrot.getDeepDelta(
+                    (i % GRID + 0.5) * 640 / GRID,
+                    (i / GRID + 0.5) * 360 / GRID
+            );
+            FloatExpComplex delta = start > 0 ? Perturbation.approximate(coeff, c) : new FloatExpComplex(0, 0);
+            deepDeltas[i] = delta;
+            deepOrigins[i] = c;
+            deltas[i] = delta.toComplex();
+            origins[i] = c.toComplex();
+            deltaRe[i] = deltas[i].getRe();
+            deltaIm[i] = deltas[i].getIm();
+            originRe[i] = origins[i].getRe();
+            originIm[i] = origins[i].getIm();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mandelbrot.shutdown();
+    }
+
+    @Benchmark
+    public long perturbationDouble() {
+        long sum = 0;
+        for (int i = 0; i < deltas.length; i++) {
+            sum += perturbation.getPTIter(deltas[i], origins[i], mandelbrot.getReferenceOrbit(), start);
+        }
+        return sum;
+    }
+
+    // FloatExp循环在delta超过1e-160后交给double循环，与Mandelbrot中的处理一致
+    @Benchmark
+    public long perturbationFloatExp() {
+        long sum = 0;
+        for (int i = 0; i < deepDeltas.length; i++) {
+            Parcel<Integer, FloatExpComplex> result = perturbation.getPTIterFloatExp(
+                    deepDeltas[i].copy(), deepOrigins[i], mandelbrot.getReferenceOrbit(), start);
+            sum += result.value == null ? result.key :
+                    perturbation.getPTIter(result.value.toComplex(), origins[i], mandelbrot.getReferenceOrbit(), result.key + 1);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long lanesScalar() {
+        return lanes(new ScalarLaneKernel());
+    }
+
+    @Benchmark
+    public long lanesVector() {
+        return lanes(new VectorLaneKernel());
+    }
+
+    private long lanes(LaneKernel kernel) {
+        kernel.run(perturbation, mandelbrot.getReferenceOrbit(), start, deltaRe, deltaIm, originRe, originIm,
+                out.length, out, null, null, () -> false);
+        long sum = 0;
+        for (double iter : out) sum += (long) iter;
+        return sum;
+    }
+}
@@ -0,0 +1,30 @@
+package hywt.maplemandel.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+
+// 基准测试使用的固定位置，保存在resources/locations下的.mpr文件中
+public class Locations {
+    public static Parameter load(String name) {
+        try (InputStream is = Locations.class.getResourceAsStream("/locations/" + name + ".mpr")) {
+            if (is == null) throw new IllegalArgumentException("Unknown location: " + name);
+            return Parameter.load(new GZIPInputStream(is));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static DrawCall nullDrawCall(int width, int height) {
+        return new DrawCall(width, height) {
+            @Override
+            public void draw(int x, int y, int w, int h, Color c) {
+            }
+
+            @Override
+            public void draw(int x, int y, Color c) {
+            }
+        };
+    }
+}
@@ -0,0 +1,45 @@
+package hywt.maplemandel.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReferenceBenchmark {
+    @Param({"deep-1e50", "deep-1e300", "deep-1e1000"})
+    public String location;
+
+    private Mandelbrot mandelbrot;
+    private ReferenceOrbit reference;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mandelbrot = new Mandelbrot(640, 360);
+        mandelbrot.loadParameter(Locations.load(location));
+        reference = mandelbrot.getReference(mandelbrot.getCenter());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mandelbrot.shutdown();
+    }
+
+    @Benchmark
+    public ReferenceOrbit reference() {
+        return mandelbrot.getReference(mandelbrot.getCenter());
+    }
+
+    @Benchmark
+    public SeriesCoefficient seriesIterate() {
+        SeriesCoefficient coeff = new SeriesCoefficient(6);
+        for (int i = 0; i < reference.size(); i++) {
+            coeff.iterate(reference.getDeep(i));
+        }
+        return coeff;
+    }
+}
@@ -0,0 +1,51 @@
+package hywt.maplemandel.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// 640x360整帧渲染，包含参考轨道与级数计算
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RenderBenchmark {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+
+    @Param({"shallow", "deep-1e50", "deep-1e300"})
+    public String location;
+
+    @Param({"true"})
+    public boolean multiThreaded;
+
+    private Mandelbrot mandelbrot;
+    private Parameter parameter;
+    private DrawCall drawCall;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mandelbrot = new Mandelbrot(WIDTH, HEIGHT);
+        mandelbrot.setMultiThreaded(multiThreaded);
+        parameter = Locations.load(location);
+        drawCall = Locations.nullDrawCall(WIDTH, HEIGHT);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        mandelbrot.loadParameter(parameter);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mandelbrot.shutdown();
+    }
+
+    @Benchmark
+    public StatsSnapshot fullFrame() {
+        mandelbrot.draw(drawCall);
+        return mandelbrot.getLastSnapshot();
+    }
+}
@@ -0,0 +1,34 @@
+package hywt.maplemandel.core.numtype;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.TimeUnit;
+
+// 精度对应缩放1e-50、1e-300、1e-1000时参考轨道使用的位数
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeepComplexBenchmark {
+    @Param({"60", "310", "1010"})
+    public int precision;
+
+    private DeepComplex p;
+    private DeepComplex q;
+
+    @Setup
+    public void setup() {
+        BigDecimal third = BigDecimal.ONE.divide(BigDecimal.valueOf(3), new MathContext(precision));
+        p = new DeepComplex(third, third.negate()).setPrecision(precision);
+        q = new DeepComplex(third.add(BigDecimal.ONE), third).setPrecision(precision);
+    }
+
+    @Benchmark
+    public DeepComplex mul() {
+        return p.mul(q);
+    }
+}
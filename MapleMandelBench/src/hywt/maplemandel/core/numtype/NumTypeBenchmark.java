@@ -0,0 +1,53 @@
+package hywt.maplemandel.core.numtype;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NumTypeBenchmark {
+    private FloatExp a;
+    private FloatExp b;
+    private FloatExp n;
+    private double raw;
+    private FloatExpComplex z;
+    private FloatExpComplex rotation;
+
+    @Setup
+    public void setup() {
+        a = new FloatExp(1.2345, -200);
+        b = new FloatExp(6.789, -203);
+        n = new FloatExp(1, 0);
+        raw = 12345.678;
+        z = new FloatExpComplex(new FloatExp(3.5, -300), new FloatExp(-1.25, -301));
+        // 单位复数，反复mulMut时数值保持有界
+        rotation = new FloatExpComplex(Math.cos(0.1), Math.sin(0.1));
+    }
+
+    @Benchmark
+    public FloatExp floatExpAdd() {
+        return a.add(b);
+    }
+
+    @Benchmark
+    public FloatExp floatExpMul() {
+        return a.mul(b);
+    }
+
+    @Benchmark
+    public FloatExp floatExpNorm() {
+        n.base = raw;
+        n.exp = 0;
+        return n.norm();
+    }
+
+    @Benchmark
+    public FloatExpComplex floatExpComplexMulMut() {
+        return z.mulMut(rotation);
+    }
+}
@@ -0,0 +1,290 @@
+package hywt.maplemandel.server;
+
+import hywt.maplemandel.core.*;
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 分布式绘制的协调端：只计算一次参考轨道与级数，发给连接上来的工作进程，再按块分发
+// 每个工作连接同时只处理一块，连接断开或超时时把该块放回队列交给其他工作进程
+// 超时只衡量工作端沉默的时间：工作端计算期间每隔HEARTBEAT_MILLIS发送一次心跳，计算时间再长的块也不会被当作失联
+// 协议见ClusterWorker
+public class ClusterCoordinator {
+    static final int MSG_CONTEXT = 1;
+    static final int MSG_TILE = 2;
+    static final int MSG_RESULT = 3;
+    static final int MSG_HEARTBEAT = 4;
+    // 工作端发送心跳的间隔，超时应明显大于它
+    static final int HEARTBEAT_MILLIS = 5000;
+
+    private final ServerSocket serverSocket;
+    private final int timeoutMillis;
+    private final BlockingQueue<Tile> pending;
+    private final List<Socket> workers;
+    private final AtomicInteger contextIds;
+    private final AtomicInteger redispatched;
+    private volatile Session session;
+    private volatile boolean closed;
+
+    public ClusterCoordinator(int port, int timeoutMillis) throws IOException {
+        if (timeoutMillis <= 2 * HEARTBEAT_MILLIS) throw new IllegalArgumentException("timeout must exceed two heartbeats");
+        this.serverSocket = new ServerSocket(port);
+        this.timeoutMillis = timeoutMillis;
+        this.pending = new LinkedBlockingQueue<>();
+        this.workers = new CopyOnWriteArrayList<>();
+        this.contextIds = new AtomicInteger();
+        this.redispatched = new AtomicInteger();
+
+        Thread acceptor = new Thread(this::accept, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // 一次绘制使用的轨道与序列化后的字节，同一连接只发送一次
+    private static class Session {
+        final int id;
+        final ReferenceContext context;
+        final byte[] payload;
+
+        Session(int id, ReferenceContext context) throws IOException {
+            this.id = id;
+            this.context = context;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                context.write(out);
+            }
+            this.payload = bytes.toByteArray();
+        }
+    }
+
+    private static class Tile {
+        final int id;
+        final int sessionId;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final FloatExpComplex offset;
+        final FloatExp scale;
+        // 迭代次数与小数部分
+        final CompletableFuture<Parcel<int[][], float[][]>> result;
+
+        Tile(int id, int sessionId, int x, int y, int width, int height, FloatExpComplex offset, FloatExp scale) {
+            this.id = id;
+            this.sessionId = sessionId;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.offset = offset;
+            this.scale = scale;
+            this.result = new CompletableFuture<>();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                // 读超时即两条消息（心跳或结果）之间允许的最长间隔
+                socket.setSoTimeout(timeoutMillis);
+                workers.add(socket);
+                Thread t = new Thread(() -> serve(socket), "cluster-" + socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (!closed) e.printStackTrace();
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        int sentSession = -1;
+        Tile tile = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (!closed) {
+                Tile next = pending.take();
+                Session current = session;
+                if (next.result.isDone() || current == null || current.id != next.sessionId) continue;
+                tile = next;
+
+                if (sentSession != current.id) {
+                    out.writeByte(MSG_CONTEXT);
+                    out.writeInt(current.id);
+                    out.writeInt(current.payload.length);
+                    out.write(current.payload);
+                    sentSession = current.id;
+                }
+                out.writeByte(MSG_TILE);
+                out.writeInt(tile.id);
+                out.writeInt(tile.sessionId);
+                writeFloatExp(out, tile.offset.getRe());
+                writeFloatExp(out, tile.offset.getIm());
+                writeFloatExp(out, tile.scale);
+                out.writeInt(tile.width);
+                out.writeInt(tile.height);
+                out.flush();
+
+                int type;
+                while ((type = in.readByte()) == MSG_HEARTBEAT) {
+                    // 工作端仍在计算
+                }
+                if (type != MSG_RESULT) throw new IOException("unexpected message " + type);
+                int id = in.readInt();
+                int w = in.readInt();
+                int h = in.readInt();
+                if (id != tile.id || w != tile.width || h != tile.height) throw new IOException("mismatched result");
+                int[][] iterations = new int[w][h];
+                float[][] fractions = new float[w][h];
+                for (int x = 0; x < w; x++) {
+                    for (int y = 0; y < h; y++) {
+                        iterations[x][y] = in.readInt();
+                        fractions[x][y] = in.readFloat();
+                    }
+                }
+                tile.result.complete(new Parcel<>(iterations, fractions));
+                tile = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Worker " + socket.getRemoteSocketAddress() + " lost: " + e);
+        } finally {
+            workers.remove(socket);
+            if (tile != null && !tile.result.isDone()) {
+                redispatched.incrementAndGet();
+                pending.add(tile);
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // 把视图分成tileSize见方的块交给工作进程，全部返回后拼成完整的迭代次数与平滑着色用的小数部分
+    // scale与Mandelbrot相同，对应图像短边的跨度，offset为视图中心相对参考中心的偏移
+    public synchronized Parcel<int[][], float[][]> render(ReferenceContext context, FloatExpComplex offset, FloatExp scale,
+                                       int width, int height, int tileSize) throws IOException {
+        Session current = new Session(contextIds.incrementAndGet(), context);
+        session = current;
+
+        FloatExp pixelSize = scale.div(Math.min(width, height));
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            int h = Math.min(tileSize, height - y);
+            for (int x = 0; x < width; x += tileSize) {
+                int w = Math.min(tileSize, width - x);
+                FloatExpComplex center = new FloatExpComplex(
+                        pixelSize.mul(x + w / 2.0 - width / 2.0),
+                        pixelSize.mul(height / 2.0 - (y + h / 2.0))
+                ).add(offset).copy();
+                tiles.add(new Tile(tiles.size(), current.id, x, y, w, h, center, pixelSize.mul(Math.min(w, h))));
+            }
+        }
+        pending.addAll(tiles);
+
+        int[][] iterations = new int[width][height];
+        float[][] fractions = new float[width][height];
+        try {
+            for (Tile tile : tiles) {
+                Parcel<int[][], float[][]> part = tile.result.join();
+                for (int dx = 0; dx < tile.width; dx++) {
+                    System.arraycopy(part.key[dx], 0, iterations[tile.x + dx], tile.y, tile.height);
+                    System.arraycopy(part.value[dx], 0, fractions[tile.x + dx], tile.y, tile.height);
+                }
+            }
+        } finally {
+            pending.removeIf(t -> t.sessionId == current.id);
+        }
+        return new Parcel<>(iterations, fractions);
+    }
+
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    public int getRedispatched() {
+        return redispatched.get();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : workers) socket.close();
+    }
+
+    static void writeFloatExp(DataOutput out, FloatExp value) throws IOException {
+        out.writeDouble(value.getBase());
+        out.writeInt(value.getExp());
+    }
+
+    static FloatExp readFloatExp(DataInput in) throws IOException {
+        return new FloatExp(in.readDouble(), in.readInt());
+    }
+
+    // 参数：端口 实部 虚部 尺度 最大迭代次数 宽 高 输出PNG [块大小，默认256] [超时秒数，默认60]
+    // 先启动协调端，再在同一台或其他机器上启动若干个ClusterWorker
+    public static void main(String[] args) throws IOException {
+        if (args.length < 8) {
+            System.err.println("Usage: ClusterCoordinator <port> <re> <im> <scale> <maxIter> <width> <height> <out.png> [tileSize] [timeoutSeconds]");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        DeepComplex center = new DeepComplex(new BigDecimal(args[1]), new BigDecimal(args[2]));
+        FloatExp scale = FloatExp.parseFloatExp(args[3]);
+        int maxIter = Integer.parseInt(args[4]);
+        int width = Integer.parseInt(args[5]);
+        int height = Integer.parseInt(args[6]);
+        String output = args[7];
+        int tileSize = args.length > 8 ? Integer.parseInt(args[8]) : 256;
+        int timeout = args.length > 9 ? Integer.parseInt(args[9]) : 60;
+
+        ClusterCoordinator coordinator = new ClusterCoordinator(port, timeout * 1000);
+        System.out.println("Coordinator listening on port " + coordinator.getPort());
+
+        long start = System.nanoTime();
+        FloatExp radius = scale.mul(Math.max(width, height) / (2.0 * Math.min(width, height)));
+        ReferenceContext context = ReferenceContext.compute(center, radius, maxIter);
+        System.out.printf("Reference: %d iterations, series skip %d, %.1f ms%n", context.getOrbit().size(),
+                context.getSeries().getIterationCount(), (System.nanoTime() - start) / 1e6);
+
+        Parcel<int[][], float[][]> result = coordinator.render(context, new FloatExpComplex(0, 0), scale, width, height, tileSize);
+        int[][] iterations = result.key;
+        float[][] fractions = result.value;
+        System.out.printf("Rendered with %d workers, %d tiles re-dispatched, %.1f ms%n", coordinator.getWorkerCount(),
+                coordinator.getRedispatched(), (System.nanoTime() - start) / 1e6);
+
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(Paths.get(output)))) {
+            PngImageSink sink = new PngImageSink(os);
+            sink.begin(width, height);
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int iter = iterations[x][y];
+                    row[x] = ((iter >= maxIter) ? Color.BLACK : Palette.getColor(iter + fractions[x][y])).getRGB();
+                }
+                sink.writeRow(row);
+            }
+            sink.finish();
+        }
+        coordinator.close();
+    }
+}
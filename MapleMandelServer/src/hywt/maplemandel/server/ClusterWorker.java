@@ -0,0 +1,134 @@
+package hywt.maplemandel.server;
+
+import hywt.maplemandel.core.RenderJob;
+import hywt.maplemandel.core.ReferenceContext;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.concurrent.*;
+
+// 分布式绘制的工作端，连接到ClusterCoordinator后循环接收消息，断开后自动重连
+// 协调端 -> 工作端：
+//   CONTEXT：轨道编号、长度、ReferenceContext.write的内容
+//   TILE：块编号、轨道编号、块中心偏移(实部、虚部)、尺度、宽、高，FloatExp均为底数(double)+指数(int)
+// 工作端 -> 协调端：
+//   HEARTBEAT：计算一块期间每隔HEARTBEAT_MILLIS发送，没有内容；协调端据此区分慢块与失联的工作端
+//   RESULT：块编号、宽、高，之后按列排列每个像素的迭代次数(int)与平滑着色用的小数部分(float)
+// 连接断开时取消正在计算的块，不留下没有接收方的工作
+public class ClusterWorker {
+    private static final long MIN_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 30000;
+
+    private final String host;
+    private final int port;
+    private final ExecutorService pool;
+    private int contextId = -1;
+    private ReferenceContext context;
+
+    public ClusterWorker(String host, int port, int threads) {
+        this.host = host;
+        this.port = port;
+        this.pool = Executors.newFixedThreadPool(threads);
+    }
+
+    // 连接失败或断开（包括协调端关闭、连接被重置）时关闭套接字，等待后重连，等待时间从1秒起每次加倍，最长30秒
+    public void run() throws InterruptedException {
+        long backoff = MIN_BACKOFF;
+        while (true) {
+            try (Socket socket = new Socket(host, port)) {
+                socket.setTcpNoDelay(true);
+                System.out.println("Connected to " + socket.getRemoteSocketAddress());
+                backoff = MIN_BACKOFF;
+                serve(socket);
+            } catch (ConnectException e) {
+                // 协调端尚未启动
+            } catch (EOFException e) {
+                System.out.println("Coordinator closed the connection");
+            } catch (IOException e) {
+                System.out.println("Connection lost: " + e);
+            }
+            // 重连后协调端会重新发送轨道
+            contextId = -1;
+            context = null;
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        while (true) {
+            int type = in.readByte();
+            if (type == ClusterCoordinator.MSG_CONTEXT) {
+                int id = in.readInt();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                context = ReferenceContext.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                contextId = id;
+            } else if (type == ClusterCoordinator.MSG_TILE) {
+                int id = in.readInt();
+                int sessionId = in.readInt();
+                FloatExp re = ClusterCoordinator.readFloatExp(in);
+                FloatExp im = ClusterCoordinator.readFloatExp(in);
+                FloatExp scale = ClusterCoordinator.readFloatExp(in);
+                int width = in.readInt();
+                int height = in.readInt();
+                if (sessionId != contextId) throw new IOException("unknown reference " + sessionId);
+
+                RenderJob job = new RenderJob(context, new FloatExpComplex(re, im), scale, width, height);
+                await(job, job.submit(pool, null), out);
+
+                out.writeByte(ClusterCoordinator.MSG_RESULT);
+                out.writeInt(id);
+                out.writeInt(width);
+                out.writeInt(height);
+                int[][] iterations = job.getIterations();
+                float[][] fractions = job.getFractions();
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        out.writeInt(iterations[x][y]);
+                        out.writeFloat(fractions[x][y]);
+                    }
+                }
+                out.flush();
+            } else {
+                throw new IOException("unknown message " + type);
+            }
+        }
+    }
+
+    // 等待块计算完成，期间定时发送心跳；发送失败（连接已断开）时取消计算
+    private static RenderJob await(RenderJob job, CompletableFuture<RenderJob> result, DataOutputStream out) throws IOException {
+        try {
+            while (true) {
+                try {
+                    return result.get(ClusterCoordinator.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    out.writeByte(ClusterCoordinator.MSG_HEARTBEAT);
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("tile failed", e.getCause());
+        } finally {
+            if (!result.isDone()) job.cancel();
+        }
+    }
+
+    // 参数：协调端地址 端口 [线程数，默认为处理器数]
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ClusterWorker <host> <port> [threads]");
+            System.exit(1);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        new ClusterWorker(args[0], Integer.parseInt(args[1]), threads).run();
+    }
+}
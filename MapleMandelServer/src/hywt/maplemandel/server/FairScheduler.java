@@ -0,0 +1,82 @@
+package hywt.maplemandel.server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+// 按客户端轮流出队的任务调度，同时运行的任务数有上限
+// 某个客户端一次请求大量瓦片时，其他客户端的请求仍能在下一轮得到处理
+class FairScheduler {
+    private final int maxRunning;
+    private final Executor executor;
+    private final Map<String, ArrayDeque<Runnable>> queues;
+    private final ArrayDeque<String> ring;
+    private int running;
+    private int queued;
+
+    FairScheduler(int maxRunning, Executor executor) {
+        this.maxRunning = maxRunning;
+        this.executor = executor;
+        this.queues = new HashMap<>();
+        this.ring = new ArrayDeque<>();
+    }
+
+    <T> CompletableFuture<T> submit(String client, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        enqueue(client, () -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private synchronized void enqueue(String client, Runnable task) {
+        ArrayDeque<Runnable> queue = queues.get(client);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(client, queue);
+            ring.add(client);
+        }
+        queue.add(task);
+        queued++;
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (running < maxRunning && !ring.isEmpty()) {
+            String client = ring.poll();
+            ArrayDeque<Runnable> queue = queues.get(client);
+            Runnable task = queue.poll();
+            if (queue.isEmpty()) queues.remove(client);
+            else ring.add(client);
+            queued--;
+            running++;
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    finished();
+                }
+            });
+        }
+    }
+
+    private synchronized void finished() {
+        running--;
+        dispatch();
+    }
+
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,59 @@
+package hywt.maplemandel.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 已编码瓦片的LRU缓存，按字节数而不是条目数限制大小
+class TileCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries;
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    synchronized byte[] get(String key) {
+        byte[] data = entries.get(key);
+        if (data != null) hits++;
+        else misses++;
+        return data;
+    }
+
+    // 不计入命中统计
+    synchronized byte[] peek(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, byte[] data) {
+        if (data.length > maxBytes) return;
+        byte[] old = entries.put(key, data);
+        if (old != null) bytes -= old.length;
+        bytes += data.length;
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
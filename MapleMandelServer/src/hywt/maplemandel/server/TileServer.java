@@ -0,0 +1,303 @@
+package hywt.maplemandel.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hywt.maplemandel.core.*;
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// 瓦片服务：GET /tile?re=..&im=..&scale=..&iter=..&z=..&x=..&y=..[&size=256]
+// re、im、scale、iter确定第0层的视图，第z层把视图分成2^z x 2^z块，(x, y)从左上角开始
+// 同一位置的参考轨道保留在内存中，相同的并发请求只绘制一次，编码后的瓦片按字节上限做LRU缓存
+// 绘制按客户端（X-Client-Id请求头，没有时用远端地址）轮流排队
+public class TileServer {
+    private static final int MAX_ZOOM = 32;
+    private static final int MAX_SIZE = 1024;
+    private static final int MAX_ITER = 1 << 24;
+    // scale的十进制指数下限，参考轨道的精度随它增长；re、im的有效位数也按它限制
+    private static final int MAX_DEPTH = 1000;
+    private static final int MAX_DIGITS = MAX_DEPTH + 40;
+
+    private final HttpServer server;
+    private final ExecutorService httpExecutor;
+    private final ExecutorService orbitExecutor;
+    private final ExecutorService slotExecutor;
+    private final ExecutorService renderPool;
+    private final FairScheduler scheduler;
+    private final TileCache cache;
+    private final Map<String, CompletableFuture<ReferenceContext>> orbits;
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inflight;
+    private final LongAdder rendered;
+    private final LongAdder shared;
+
+    public TileServer(InetSocketAddress address, long cacheBytes, int maxLocations) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        server = HttpServer.create(address, 0);
+        httpExecutor = Executors.newCachedThreadPool();
+        orbitExecutor = Executors.newFixedThreadPool(2);
+        slotExecutor = Executors.newCachedThreadPool();
+        renderPool = Executors.newFixedThreadPool(threads);
+        scheduler = new FairScheduler(threads, slotExecutor);
+        cache = new TileCache(cacheBytes);
+        orbits = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<ReferenceContext>> eldest) {
+                return size() > maxLocations;
+            }
+        };
+        inflight = new ConcurrentHashMap<>();
+        rendered = new LongAdder();
+        shared = new LongAdder();
+
+        server.setExecutor(httpExecutor);
+        server.createContext("/tile", this::handleTile);
+        server.createContext("/stats", this::handleStats);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        httpExecutor.shutdownNow();
+        orbitExecutor.shutdownNow();
+        slotExecutor.shutdownNow();
+        renderPool.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // 任何返回路径都关闭exchange，未发送响应的连接不会一直占用
+    private void handleTile(HttpExchange exchange) throws IOException {
+        try {
+            TileRequest request;
+            try {
+                request = TileRequest.parse(exchange.getRequestURI().getRawQuery());
+            } catch (RuntimeException e) {
+                respond(exchange, 400, "text/plain; charset=utf-8", ("bad request: " + e.getMessage()).getBytes(StandardCharsets.UTF_8), null);
+                return;
+            }
+
+            String client = exchange.getRequestHeaders().getFirst("X-Client-Id");
+            if (client == null) client = exchange.getRemoteAddress().getAddress().getHostAddress();
+
+            String key = request.tileKey();
+            byte[] data = cache.get(key);
+            String status = "HIT";
+            if (data == null) {
+                CompletableFuture<byte[]> created = new CompletableFuture<>();
+                CompletableFuture<byte[]> existing = inflight.putIfAbsent(key, created);
+                CompletableFuture<byte[]> future;
+                if (existing != null) {
+                    shared.increment();
+                    status = "SHARED";
+                    future = existing;
+                } else {
+                    status = "MISS";
+                    future = created;
+                    startTile(request, client, key, created);
+                }
+                try {
+                    data = future.get();
+                } catch (InterruptedException e) {
+                    // 服务器正在停止
+                    Thread.currentThread().interrupt();
+                    respond(exchange, 503, "text/plain; charset=utf-8", "shutting down".getBytes(StandardCharsets.UTF_8), null);
+                    return;
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    respond(exchange, 500, "text/plain; charset=utf-8", String.valueOf(e.getCause()).getBytes(StandardCharsets.UTF_8), null);
+                    return;
+                }
+            }
+            respond(exchange, 200, "image/png", data, status);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // 由第一个请求发起绘制，完成后写入缓存并移出进行中的表
+    private void startTile(TileRequest request, String client, String key, CompletableFuture<byte[]> target) {
+        byte[] cached = cache.peek(key);
+        CompletableFuture<byte[]> work = cached != null ? CompletableFuture.completedFuture(cached) :
+                context(request).thenCompose(ctx -> scheduler.submit(client, () -> renderTile(ctx, request)));
+        work.whenComplete((data, e) -> {
+            if (data != null) cache.put(key, data);
+            inflight.remove(key, target);
+            if (e != null) target.completeExceptionally(e);
+            else target.complete(data);
+        });
+    }
+
+    // 取得或开始计算该位置的参考轨道，级数覆盖第0层的整个视图
+    private CompletableFuture<ReferenceContext> context(TileRequest request) {
+        String key = request.locationKey();
+        synchronized (orbits) {
+            CompletableFuture<ReferenceContext> future = orbits.get(key);
+            if (future == null || future.isCompletedExceptionally()) {
+                future = CompletableFuture.supplyAsync(() ->
+                        ReferenceContext.compute(request.center, request.scale.div(2), request.iterations), orbitExecutor);
+                orbits.put(key, future);
+            }
+            return future;
+        }
+    }
+
+    private byte[] renderTile(ReferenceContext context, TileRequest request) {
+        double n = Math.pow(2, request.zoom);
+        FloatExpComplex offset = new FloatExpComplex(
+                request.scale.mul((request.x + 0.5) / n - 0.5),
+                request.scale.mul(0.5 - (request.y + 0.5) / n)
+        );
+        RenderJob job = new RenderJob(context, offset, request.scale.div(n), request.size, request.size);
+        job.submit(renderPool, null).join();
+        rendered.increment();
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PngImageSink sink = new PngImageSink(bytes);
+            sink.begin(request.size, request.size);
+            int[] row = new int[request.size];
+            for (int y = 0; y < request.size; y++) {
+                for (int x = 0; x < request.size; x++) {
+                    row[x] = job.getColor(x, y).getRGB();
+                }
+                sink.writeRow(row);
+            }
+            sink.finish();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        int locations;
+        synchronized (orbits) {
+            locations = orbits.size();
+        }
+        String json = "{\"rendered\":" + rendered.sum() +
+                ",\"cacheHits\":" + cache.getHits() +
+                ",\"cacheMisses\":" + cache.getMisses() +
+                ",\"shared\":" + shared.sum() +
+                ",\"cachedTiles\":" + cache.size() +
+                ",\"cacheBytes\":" + cache.getBytes() +
+                ",\"locations\":" + locations +
+                ",\"queued\":" + scheduler.getQueued() +
+                ",\"running\":" + scheduler.getRunning() + "}";
+        respond(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String type, byte[] body, String cacheStatus) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        if (cacheStatus != null) {
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+            exchange.getResponseHeaders().set("X-Tile-Cache", cacheStatus);
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    static class TileRequest {
+        final DeepComplex center;
+        final FloatExp scale;
+        final int iterations;
+        final int zoom;
+        final long x;
+        final long y;
+        final int size;
+
+        TileRequest(DeepComplex center, FloatExp scale, int iterations, int zoom, long x, long y, int size) {
+            this.center = center;
+            this.scale = scale;
+            this.iterations = iterations;
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        static TileRequest parse(String query) {
+            Map<String, String> params = new HashMap<>();
+            if (query != null) {
+                for (String pair : query.split("&")) {
+                    int eq = pair.indexOf('=');
+                    if (eq <= 0) continue;
+                    params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+            DeepComplex center = new DeepComplex(coordinate(params, "re"), coordinate(params, "im"));
+            FloatExp scale = FloatExp.parseFloatExp(required(params, "scale"));
+            int iterations = Integer.parseInt(required(params, "iter"));
+            int zoom = Integer.parseInt(params.getOrDefault("z", "0"));
+            long x = Long.parseLong(params.getOrDefault("x", "0"));
+            long y = Long.parseLong(params.getOrDefault("y", "0"));
+            int size = Integer.parseInt(params.getOrDefault("size", "256"));
+
+            if (iterations <= 0 || iterations > MAX_ITER) throw new IllegalArgumentException("iter must be in [1, " + MAX_ITER + "]");
+            if (!(scale.getBase() > 0) || scale.getExp() < -MAX_DEPTH) throw new IllegalArgumentException("scale must be positive and at least 1e-" + MAX_DEPTH);
+            if (zoom < 0 || zoom > MAX_ZOOM) throw new IllegalArgumentException("z must be in [0, " + MAX_ZOOM + "]");
+            long tiles = 1L << zoom;
+            if (x < 0 || x >= tiles || y < 0 || y >= tiles) throw new IllegalArgumentException("tile out of range");
+            if (size <= 0 || size > MAX_SIZE) throw new IllegalArgumentException("size must be in [1, " + MAX_SIZE + "]");
+            return new TileRequest(center, scale, iterations, zoom, x, y, size);
+        }
+
+        // 先按字符串长度拒绝，避免解析超长的数；再限制小数位数，拒绝1e-1000000这样的写法
+        private static BigDecimal coordinate(Map<String, String> params, String name) {
+            String value = required(params, name);
+            if (value.length() > MAX_DIGITS) throw new IllegalArgumentException(name + " has too many digits");
+            BigDecimal decimal = new BigDecimal(value);
+            if (decimal.scale() > MAX_DIGITS || decimal.precision() - decimal.scale() > 2)
+                throw new IllegalArgumentException(name + " out of range");
+            return decimal;
+        }
+
+        private static String required(Map<String, String> params, String name) {
+            String value = params.get(name);
+            if (value == null) throw new IllegalArgumentException("missing " + name);
+            return value;
+        }
+
+        String locationKey() {
+            return center.getRe().stripTrailingZeros().toString() + "," +
+                    center.getIm().stripTrailingZeros().toString() + "," + scale + "," + iterations;
+        }
+
+        String tileKey() {
+            return locationKey() + "/" + zoom + "/" + x + "/" + y + "/" + size;
+        }
+    }
+
+    // 参数：端口（默认8080）、瓦片缓存MB（默认256）、保留参考轨道的位置数（默认16）、监听地址（默认只监听本机）
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        long cacheMb = args.length > 1 ? Long.parseLong(args[1]) : 256;
+        int locations = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        InetAddress host = args.length > 3 ? InetAddress.getByName(args[3]) : InetAddress.getLoopbackAddress();
+        TileServer server = new TileServer(new InetSocketAddress(host, port), cacheMb << 20, locations);
+        server.start();
+        System.out.println("Tile server listening on " + host.getHostAddress() + ":" + server.getPort());
+    }
+}
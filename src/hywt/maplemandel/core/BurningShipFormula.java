@@ -0,0 +1,201 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CancellationException;
+
+// Burning Ship：x' = x^2 - y^2 + cx，y' = 2|xy| + cy
+// 虚部的扰动 2(|XY + d| - |XY|) 用diffAbs按符号分情况计算，避免两个接近的大数相减；不可解析，没有级数
+final class BurningShipFormula extends Formula {
+    @Override
+    public String getName() {
+        return "Burning Ship";
+    }
+
+    @Override
+    DeepComplex step(DeepComplex z, DeepComplex c, MathContext mc) {
+        BigDecimal re = z.getRe();
+        BigDecimal im = z.getIm();
+        BigDecimal x = re.multiply(re, mc).subtract(im.multiply(im, mc), mc).add(c.getRe(), mc);
+        BigDecimal y = re.multiply(im, mc).abs().multiply(BigDecimal.valueOf(2), mc).add(c.getIm(), mc);
+        return new DeepComplex(x, y);
+    }
+
+    @Override
+    void stepDouble(double[] z, double cRe, double cIm) {
+        double re = z[0];
+        double im = z[1];
+        z[0] = re * re - im * im + cRe;
+        z[1] = 2 * Math.abs(re * im) + cIm;
+    }
+
+    // |c + d| - |c|
+    private static double diffAbs(double c, double d) {
+        double cd = c + d;
+        if (c >= 0) return cd >= 0 ? d : -(2 * c + d);
+        return cd > 0 ? 2 * c + d : -d;
+    }
+
+    private static FloatExp diffAbs(FloatExp c, FloatExp d) {
+        FloatExp cd = c.add(d);
+        if (c.getBase() >= 0) return cd.getBase() >= 0 ? d : c.mul(2).add(d).rev();
+        return cd.getBase() > 0 ? c.mul(2).add(d) : d.rev();
+    }
+
+    @Override
+    double getPTIter(Perturbation p, Complex delta, Complex origin, ReferenceOrbit reference,
+                     int start, int refStart, PixelStateBuffer states, int index) {
+        int maxIter = p.getMaxIter();
+        double bailout = p.getBailout();
+        double dRe = delta.getRe();
+        double dIm = delta.getIm();
+        double cRe = origin.getRe();
+        double cIm = origin.getIm();
+        OrbitWindow window = reference.window();
+        double[] refRe = window.re;
+        double[] refIm = window.im;
+        int mask = window.mask;
+        double tmp;
+
+        int iter = start;
+        double norm = 0;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        double forcedRe = 0;
+        double forcedIm = 0;
+        int available = window.await(refIter + 1);
+        refRe = window.re;
+        refIm = window.im;
+        while (iter < maxIter) {
+            if ((iter & Perturbation.CANCEL_CHECK_MASK) == 0 && p.isCancelled()) throw new CancellationException();
+            double Zr = refRe[refIter & mask];
+            double Zi = refIm[refIter & mask];
+
+            tmp = (2 * Zr + dRe) * dRe - (2 * Zi + dIm) * dIm + cRe;
+            dIm = 2 * diffAbs(Zr * Zi, Zr * dIm + dRe * Zi + dRe * dIm) + cIm;
+            dRe = tmp;
+            refIter++;
+
+            double valR = refRe[refIter & mask] + dRe;
+            double valI = refIm[refIter & mask] + dIm;
+            double val = valR * valR + valI * valI;
+            if (val > bailout) {
+                norm = val;
+                break;
+            }
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                refRe = window.re;
+                refIm = window.im;
+            }
+            if (val < dRe * dRe + dIm * dIm || refIter == available - 1) {
+                if (states != null && forcedIter < 0 && available == reference.capacity() && val >= dRe * dRe + dIm * dIm) {
+                    forcedIter = iter + 1;
+                    forcedRe = dRe;
+                    forcedIm = dIm;
+                    forcedRef = refIter;
+                }
+                dRe = valR;
+                dIm = valI;
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        p.finish(states, index, iter, rebases, dRe, dIm, refIter, forcedIter, forcedRe, forcedIm, forcedRef);
+        return iter < maxIter ? p.smooth(iter, norm) : iter;
+    }
+
+    @Override
+    Parcel<Integer, FloatExpComplex> getPTIterFloatExp(Perturbation p, FloatExpComplex delta, FloatExpComplex origin,
+                                                       ReferenceOrbit reference, int start, int refStart,
+                                                       PixelStateBuffer states, int index) {
+        int maxIter = p.getMaxIter();
+        OrbitWindow window = reference.window();
+        FloatExpComplex[] ref = window.deep();
+        int mask = window.mask;
+        FloatExp dRe = delta.getRe();
+        FloatExp dIm = delta.getIm();
+        FloatExp cRe = origin.getRe();
+        FloatExp cIm = origin.getIm();
+
+        int iter = start;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        FloatExpComplex forcedDelta = null;
+        int available = window.await(refIter + 1);
+        ref = window.deep;
+        Parcel<Integer, FloatExpComplex> result = null;
+        while (iter < maxIter) {
+            if ((iter & Perturbation.CANCEL_CHECK_MASK) == 0 && p.isCancelled()) throw new CancellationException();
+            FloatExp Zr = ref[refIter & mask].getRe();
+            FloatExp Zi = ref[refIter & mask].getIm();
+
+            // 只用不修改操作数的运算，参考轨道与delta之间可能共享对象
+            FloatExp re = Zr.mul(2).add(dRe).mul(dRe).sub(Zi.mul(2).add(dIm).mul(dIm)).add(cRe);
+            dIm = diffAbs(Zr.mul(Zi), Zr.mul(dIm).add(dRe.mul(Zi)).add(dRe.mul(dIm))).mul(2).add(cIm);
+            dRe = re;
+            refIter++;
+
+            if (dRe.scale() > -160 && dIm.scale() > -160) {
+                result = new Parcel<>(iter, new FloatExpComplex(dRe, dIm));
+                break;
+            }
+            FloatExp valR = ref[refIter & mask].getRe().add(dRe);
+            FloatExp valI = ref[refIter & mask].getIm().add(dIm);
+            FloatExp len = valR.mul(valR).add(valI.mul(valI));
+            if (len.doubleValue() > p.getBailout()) break;
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                ref = window.deep;
+            }
+            FloatExp norm = dRe.mul(dRe).add(dIm.mul(dIm));
+            if (len.compareTo(norm) < 0 || refIter == available - 1) {
+                if (states != null && forcedIter < 0 && available == reference.capacity() && len.compareTo(norm) >= 0) {
+                    forcedIter = iter + 1;
+                    forcedDelta = new FloatExpComplex(dRe, dIm).copy();
+                    forcedRef = refIter;
+                }
+                dRe = valR;
+                dIm = valI;
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        return p.finish(states, index, iter, rebases, result, new FloatExpComplex(dRe, dIm), refIter, forcedIter, forcedDelta, forcedRef);
+    }
+
+    @Override
+    boolean hasSeries() {
+        return false;
+    }
+
+    @Override
+    void iterateSeries(SeriesCoefficient series, FloatExpComplex Z) {
+        throw new UnsupportedOperationException("Burning Ship has no series approximation");
+    }
+
+    @Override
+    FloatExpComplex perturb(FloatExpComplex delta, FloatExpComplex Z, FloatExpComplex dc) {
+        FloatExp Zr = Z.getRe();
+        FloatExp Zi = Z.getIm();
+        FloatExp dRe = delta.getRe();
+        FloatExp dIm = delta.getIm();
+        return new FloatExpComplex(
+                Zr.mul(2).add(dRe).mul(dRe).sub(Zi.mul(2).add(dIm).mul(dIm)).add(dc.getRe()),
+                diffAbs(Zr.mul(Zi), Zr.mul(dIm).add(dRe.mul(Zi)).add(dRe.mul(dIm))).mul(2).add(dc.getIm())
+        );
+    }
+}
@@ -0,0 +1,11 @@
+package hywt.maplemandel.core;
+
+// 着色方式，只影响从迭代缓存到颜色的映射，切换后不必重新计算像素
+public enum Colouring {
+    // 按迭代次数在调色板上循环取色
+    ITERATION,
+    // 按迭代次数在所有逃逸像素中的排名取色，每种颜色覆盖的像素数大致相同
+    HISTOGRAM,
+    // 按迭代次数的对数取色，迭代次数范围很大时层次仍然分明
+    LOG_DENSITY
+}
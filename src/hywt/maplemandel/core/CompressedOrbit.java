@@ -0,0 +1,220 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// 压缩存储的参考轨道，数据放在堆外，以long下标寻址，点数可以超过2^31
+// 每个点相对预测值只存残差：预测值是上一个点在double下迭代一步（Formula.stepDouble）
+// 普通记录10字节：实部、虚部残差各一个float，再各用一个字节记录FloatExp的底数比由double换算的结果差几个ulp
+// 残差不能精确还原、指数不一致的点，以及每块的第一个点存为完整记录（两个FloatExp的底数与指数，24字节）
+// 还原的double与FloatExp都与未压缩时逐位相同；读取任意位置时从所在块的第一个点开始重建
+final class CompressedOrbit {
+    static final int BLOCK_BITS = 12;
+    private static final long BLOCK_MASK = (1L << BLOCK_BITS) - 1;
+    // 每个堆外缓冲区容纳的记录数
+    private static final int CHUNK_BITS = 20;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    private static final int RECORD = 10;
+    private static final int FULL = 24;
+    // 底数最多相差的ulp数，超出时存为完整记录
+    private static final int MAX_ULPS = 8;
+
+    private final Formula formula;
+    private final double cRe;
+    private final double cIm;
+    // 读取方不加锁：数组扩大时复制后整体替换，新数组及其中的内容在写入size之前发布
+    private volatile ByteBuffer[] records = new ByteBuffer[0];
+    private volatile ByteBuffer[] fulls = new ByteBuffer[0];
+    // 每块第一个点对应的完整记录序号
+    private volatile long[] blocks = new long[64];
+    private volatile long size;
+    private long fullCount;
+
+    // 写入端的状态：上一个点的double值与预测用的临时数组
+    private final double[] last = new double[2];
+    private final double[] predicted = new double[2];
+
+    CompressedOrbit(Formula formula, DeepComplex c) {
+        this.formula = formula;
+        this.cRe = c.getRe().doubleValue();
+        this.cIm = c.getIm().doubleValue();
+    }
+
+    // 只由计算参考轨道的线程调用，读取方通过ReferenceOrbit的volatile size确认点已写入
+    void add(FloatExpComplex z) {
+        FloatExp re = z.getRe();
+        FloatExp im = z.getIm();
+        double dRe = re.doubleValue();
+        double dIm = im.doubleValue();
+        long n = size;
+        ByteBuffer buf = record(n);
+        int offset = (int) (n & CHUNK_MASK) * RECORD;
+
+        boolean full = (n & BLOCK_MASK) == 0;
+        if (!full) {
+            predicted[0] = last[0];
+            predicted[1] = last[1];
+            formula.stepDouble(predicted, cRe, cIm);
+            float rRe = (float) (dRe - predicted[0]);
+            float rIm = (float) (dIm - predicted[1]);
+            int uRe = ulps(re, dRe);
+            int uIm = ulps(im, dIm);
+            full = predicted[0] + rRe != dRe || predicted[1] + rIm != dIm || uRe == Integer.MIN_VALUE || uIm == Integer.MIN_VALUE;
+            if (!full) {
+                buf.putFloat(offset, rRe);
+                buf.putFloat(offset + 4, rIm);
+                buf.put(offset + 8, (byte) uRe);
+                buf.put(offset + 9, (byte) uIm);
+            }
+        }
+        if (full) {
+            if ((n & BLOCK_MASK) == 0) {
+                int block = (int) (n >>> BLOCK_BITS);
+                long[] index = blocks;
+                if (block >= index.length) {
+                    index = Arrays.copyOf(index, index.length * 2);
+                    index[block] = fullCount;
+                    blocks = index;
+                } else {
+                    index[block] = fullCount;
+                }
+            }
+            ByteBuffer f = full(fullCount);
+            int fo = (int) (fullCount & CHUNK_MASK) * FULL;
+            f.putDouble(fo, re.getBase());
+            f.putInt(fo + 8, re.getExp());
+            f.putDouble(fo + 12, im.getBase());
+            f.putInt(fo + 20, im.getExp());
+            fullCount++;
+            buf.putFloat(offset, Float.NaN);
+        }
+        last[0] = dRe;
+        last[1] = dIm;
+        size = n + 1;
+    }
+
+    // value由double换算成FloatExp后，底数要向上（正数）或向下（负数）走几个ulp才等于原值，不能还原时返回MIN_VALUE
+    private static int ulps(FloatExp value, double d) {
+        FloatExp f = new FloatExp(d);
+        if (f.getExp() != value.getExp()) return Integer.MIN_VALUE;
+        double base = f.getBase();
+        double target = value.getBase();
+        int k = 0;
+        while (base < target && k < MAX_ULPS) {
+            base = Math.nextUp(base);
+            k++;
+        }
+        while (base > target && k > -MAX_ULPS) {
+            base = Math.nextDown(base);
+            k--;
+        }
+        return base == target ? k : Integer.MIN_VALUE;
+    }
+
+    private static FloatExp restore(double d, int ulps) {
+        FloatExp f = new FloatExp(d);
+        if (ulps == 0) return f;
+        double base = f.getBase();
+        for (int i = 0; i < ulps; i++) base = Math.nextUp(base);
+        for (int i = 0; i > ulps; i--) base = Math.nextDown(base);
+        return new FloatExp(base, f.getExp());
+    }
+
+    private ByteBuffer record(long index) {
+        ByteBuffer[] chunks = records;
+        int chunk = (int) (index >>> CHUNK_BITS);
+        if (chunk == chunks.length) {
+            chunks = grow(chunks, RECORD);
+            records = chunks;
+        }
+        return chunks[chunk];
+    }
+
+    private ByteBuffer full(long index) {
+        ByteBuffer[] chunks = fulls;
+        int chunk = (int) (index >>> CHUNK_BITS);
+        if (chunk == chunks.length) {
+            chunks = grow(chunks, FULL);
+            fulls = chunks;
+        }
+        return chunks[chunk];
+    }
+
+    // 复制并追加一个堆外缓冲区，替换前不修改原数组
+    private static ByteBuffer[] grow(ByteBuffer[] chunks, int record) {
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = ByteBuffer.allocateDirect(record << CHUNK_BITS).order(ByteOrder.nativeOrder());
+        return grown;
+    }
+
+    long size() {
+        return size;
+    }
+
+    // 占用的堆外字节数
+    long bytes() {
+        return ((long) records.length * RECORD + (long) fulls.length * FULL) << CHUNK_BITS;
+    }
+
+    long fullRecords() {
+        return fullCount;
+    }
+
+    Reader reader() {
+        return new Reader();
+    }
+
+    // 顺序还原的读取器，每个线程各自持有
+    final class Reader {
+        private long position;
+        private long full;
+        private final double[] z = new double[2];
+
+        // 下一个read返回第i个点；从所在块的第一个点开始重建
+        void seek(long i) {
+            long block = i >>> BLOCK_BITS;
+            position = block << BLOCK_BITS;
+            full = blocks[(int) block];
+            while (position < i) read(null, null, null, 0);
+        }
+
+        long position() {
+            return position;
+        }
+
+        // 还原下一个点写入各数组的第slot个位置，数组为null时跳过，deep为null时不还原FloatExp
+        void read(double[] re, double[] im, FloatExpComplex[] deep, int slot) {
+            long n = position;
+            ByteBuffer buf = records[(int) (n >>> CHUNK_BITS)];
+            int offset = (int) (n & CHUNK_MASK) * RECORD;
+            float rRe = buf.getFloat(offset);
+            FloatExpComplex value = null;
+            if (Float.isNaN(rRe)) {
+                ByteBuffer f = fulls[(int) (full >>> CHUNK_BITS)];
+                int fo = (int) (full & CHUNK_MASK) * FULL;
+                FloatExp vRe = new FloatExp(f.getDouble(fo), f.getInt(fo + 8));
+                FloatExp vIm = new FloatExp(f.getDouble(fo + 12), f.getInt(fo + 20));
+                full++;
+                z[0] = vRe.doubleValue();
+                z[1] = vIm.doubleValue();
+                if (deep != null) value = new FloatExpComplex(vRe, vIm);
+            } else {
+                formula.stepDouble(z, cRe, cIm);
+                z[0] += rRe;
+                z[1] += buf.getFloat(offset + 4);
+                if (deep != null) value = new FloatExpComplex(restore(z[0], buf.get(offset + 8)), restore(z[1], buf.get(offset + 9)));
+            }
+            if (re != null) {
+                re[slot] = z[0];
+                im[slot] = z[1];
+            }
+            if (deep != null) deep[slot] = value;
+            position = n + 1;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CancellationException;
+
+// z^3 + c，扰动：delta' = delta * (3Z^2 + 3Z*delta + delta^2) + dc
+// 级数：a_k' = 3Z^2 a_k + 3Z * sum(a_i a_j) + sum(a_i a_j a_l) (+1 当k=1)，下标之和为k
+final class CubicFormula extends Formula {
+    @Override
+    public String getName() {
+        return "z³+c";
+    }
+
+    @Override
+    public String getKey() {
+        return "cubic";
+    }
+
+    @Override
+    DeepComplex step(DeepComplex z, DeepComplex c, MathContext mc) {
+        BigDecimal re = z.getRe();
+        BigDecimal im = z.getIm();
+        BigDecimal x2 = re.multiply(re, mc);
+        BigDecimal y2 = im.multiply(im, mc);
+        BigDecimal three = BigDecimal.valueOf(3);
+        BigDecimal x = re.multiply(x2.subtract(y2.multiply(three, mc), mc), mc).add(c.getRe(), mc);
+        BigDecimal y = im.multiply(x2.multiply(three, mc).subtract(y2, mc), mc).add(c.getIm(), mc);
+        return new DeepComplex(x, y);
+    }
+
+    @Override
+    int degree() {
+        return 3;
+    }
+
+    @Override
+    void stepDouble(double[] z, double cRe, double cIm) {
+        double re = z[0];
+        double im = z[1];
+        double x2 = re * re;
+        double y2 = im * im;
+        z[0] = re * (x2 - 3 * y2) + cRe;
+        z[1] = im * (3 * x2 - y2) + cIm;
+    }
+
+    @Override
+    double getPTIter(Perturbation p, Complex delta, Complex origin, ReferenceOrbit reference,
+                     int start, int refStart, PixelStateBuffer states, int index) {
+        int maxIter = p.getMaxIter();
+        double bailout = p.getBailout();
+        double dRe = delta.getRe();
+        double dIm = delta.getIm();
+        double cRe = origin.getRe();
+        double cIm = origin.getIm();
+        OrbitWindow window = reference.window();
+        double[] refRe = window.re;
+        double[] refIm = window.im;
+        int mask = window.mask;
+
+        int iter = start;
+        double norm = 0;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        double forcedRe = 0;
+        double forcedIm = 0;
+        int available = window.await(refIter + 1);
+        refRe = window.re;
+        refIm = window.im;
+        while (iter < maxIter) {
+            if ((iter & Perturbation.CANCEL_CHECK_MASK) == 0 && p.isCancelled()) throw new CancellationException();
+            double Zr = refRe[refIter & mask];
+            double Zi = refIm[refIter & mask];
+
+            // w = 3Z^2 + delta * (3Z + delta)
+            double ar = 3 * Zr + dRe;
+            double ai = 3 * Zi + dIm;
+            double wr = 3 * (Zr * Zr - Zi * Zi) + (dRe * ar - dIm * ai);
+            double wi = 6 * Zr * Zi + (dRe * ai + dIm * ar);
+            double tmp = dRe * wr - dIm * wi + cRe;
+            dIm = dRe * wi + dIm * wr + cIm;
+            dRe = tmp;
+            refIter++;
+
+            double valR = refRe[refIter & mask] + dRe;
+            double valI = refIm[refIter & mask] + dIm;
+            double val = valR * valR + valI * valI;
+            if (val > bailout) {
+                norm = val;
+                break;
+            }
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                refRe = window.re;
+                refIm = window.im;
+            }
+            if (val < dRe * dRe + dIm * dIm || refIter == available - 1) {
+                if (states != null && forcedIter < 0 && available == reference.capacity() && val >= dRe * dRe + dIm * dIm) {
+                    forcedIter = iter + 1;
+                    forcedRe = dRe;
+                    forcedIm = dIm;
+                    forcedRef = refIter;
+                }
+                dRe = valR;
+                dIm = valI;
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        p.finish(states, index, iter, rebases, dRe, dIm, refIter, forcedIter, forcedRe, forcedIm, forcedRef);
+        return iter < maxIter ? p.smooth(iter, norm) : iter;
+    }
+
+    @Override
+    Parcel<Integer, FloatExpComplex> getPTIterFloatExp(Perturbation p, FloatExpComplex delta, FloatExpComplex origin,
+                                                       ReferenceOrbit reference, int start, int refStart,
+                                                       PixelStateBuffer states, int index) {
+        int maxIter = p.getMaxIter();
+        OrbitWindow window = reference.window();
+        FloatExpComplex[] ref = window.deep();
+        int mask = window.mask;
+
+        int iter = start;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        FloatExpComplex forcedDelta = null;
+        int available = window.await(refIter + 1);
+        ref = window.deep;
+        Parcel<Integer, FloatExpComplex> result = null;
+        while (iter < maxIter) {
+            if ((iter & Perturbation.CANCEL_CHECK_MASK) == 0 && p.isCancelled()) throw new CancellationException();
+            delta = perturb(delta, ref[refIter & mask], origin);
+            refIter++;
+
+            if (delta.getRe().scale() > -160 && delta.getIm().scale() > -160) {
+                result = new Parcel<>(iter, delta);
+                break;
+            }
+            FloatExpComplex val = ref[refIter & mask].add(delta);
+            FloatExp len = val.abs();
+            if (len.doubleValue() > p.getBailout()) break;
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                ref = window.deep;
+            }
+            if (len.compareTo(delta.abs()) < 0 || refIter == available - 1) {
+                if (states != null && forcedIter < 0 && available == reference.capacity() && len.compareTo(delta.abs()) >= 0) {
+                    forcedIter = iter + 1;
+                    forcedDelta = delta.copy();
+                    forcedRef = refIter;
+                }
+                delta = val.copy();
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        return p.finish(states, index, iter, rebases, result, delta, refIter, forcedIter, forcedDelta, forcedRef);
+    }
+
+    @Override
+    void iterateSeries(SeriesCoefficient series, FloatExpComplex Z) {
+        int terms = series.getTerms();
+        // a[k]为delta中dc^(k+1)的系数，sq、cube分别为delta^2、delta^3的系数
+        FloatExpComplex[] a = series.getCoefficients().toArray(new FloatExpComplex[0]);
+        FloatExpComplex[] sq = new FloatExpComplex[terms];
+        FloatExpComplex[] cube = new FloatExpComplex[terms];
+        for (int k = 0; k < terms; k++) {
+            FloatExpComplex s = new FloatExpComplex(0, 0);
+            for (int i = 0; i + 1 <= k; i++) s = s.add(a[i].mul(a[k - 1 - i]));
+            sq[k] = s;
+            FloatExpComplex t = new FloatExpComplex(0, 0);
+            for (int i = 0; i + 1 <= k; i++) t = t.add(a[i].mul(sq[k - 1 - i]));
+            cube[k] = t;
+        }
+
+        FloatExpComplex z2 = Z.mul(Z).mul(3);
+        FloatExpComplex z3 = Z.mul(3);
+        FloatExpComplex[] next = new FloatExpComplex[terms];
+        for (int k = 0; k < terms; k++) {
+            FloatExpComplex c = z2.mul(a[k]).add(z3.mul(sq[k])).add(cube[k]);
+            if (k == 0) c = c.add(new FloatExpComplex(1, 0));
+            next[k] = c;
+        }
+        series.update(next);
+    }
+
+    @Override
+    FloatExpComplex perturb(FloatExpComplex delta, FloatExpComplex Z, FloatExpComplex dc) {
+        FloatExpComplex w = Z.mul(Z).mul(3).add(delta.mul(Z.mul(3).add(delta)));
+        return delta.mul(w).add(dc);
+    }
+}
@@ -20,4 +20,12 @@ public abstract class DrawCall {
     public abstract void draw(int x, int y, int w, int h, Color c);
 
     public abstract void draw(int x, int y, Color c);
+
+    // 每个阶段结束时调用，progress为已确定的像素比例，默认不处理
+    public void progress(RenderStage stage, double progress) {
+    }
+
+    // 每个阶段结束及绘制完成时调用，给出当时的统计，默认不处理
+    public void snapshot(StatsSnapshot snapshot) {
+    }
 }
@@ -0,0 +1,185 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// 指数映射（对数极坐标）绘制：以参考中心为原点，横向为角度，纵向为半径的对数，半径每缩小一半为一条行带
+// 从outerScale缩放到innerScale的一段视频只需每倍缩放绘制一条行带，再加最深处的一帧普通图像作为中心
+// 第k条行带第j行的半径为 R0 * 2^-(k + j/rowsPerOctave)，R0为最外一帧角上的半径；第i列的角度为 2π(i+0.5)/stripWidth
+// stripWidth按帧对角线的周长取，角上的像素也不比帧的像素粗；rowsPerOctave使行带的像素接近正方形
+public class ExpMapRenderer {
+    private final ReferenceContext context;
+    private final FloatExp outerScale;
+    private final FloatExp innerScale;
+    private final int frameWidth;
+    private final int frameHeight;
+    private final double cornerFactor;
+    private final double zoomOctaves;
+    private final int stripWidth;
+    private final int rowsPerOctave;
+    private final int octaves;
+    private final FloatExp outerRadius;
+    private final double[] cos;
+    private final double[] sin;
+    private final Perturbation perturbation;
+    private volatile boolean cancelled;
+
+    // scale与Mandelbrot相同，对应帧短边的跨度；outerScale不小于innerScale
+    public ExpMapRenderer(ReferenceContext context, FloatExp outerScale, FloatExp innerScale, int frameWidth, int frameHeight) {
+        this.context = context;
+        this.outerScale = outerScale;
+        this.innerScale = innerScale;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        double diagonal = Math.hypot(frameWidth, frameHeight);
+        this.cornerFactor = diagonal / (2.0 * Math.min(frameWidth, frameHeight));
+        this.zoomOctaves = Math.max(0, log2(outerScale.div(innerScale)));
+        this.stripWidth = (int) Math.ceil(Math.PI * diagonal);
+        this.rowsPerOctave = (int) Math.ceil(stripWidth * Math.log(2) / (2 * Math.PI));
+        // 最内一行的半径不超过最深一帧内切圆的半径，更靠近中心的像素都落在最深一帧内
+        this.octaves = Math.max(1, (int) Math.ceil(zoomOctaves + log2(2 * cornerFactor)));
+        this.outerRadius = outerScale.mul(cornerFactor);
+        this.cos = new double[stripWidth];
+        this.sin = new double[stripWidth];
+        for (int i = 0; i < stripWidth; i++) {
+            double theta = 2 * Math.PI * (i + 0.5) / stripWidth;
+            cos[i] = Math.cos(theta);
+            sin[i] = Math.sin(theta);
+        }
+        this.perturbation = new Perturbation(context.getMaxIter(), new MandelbrotStats(0), () -> cancelled);
+    }
+
+    // 以center为参考计算轨道，精度按最深一帧取
+    public static ExpMapRenderer compute(DeepComplex center, FloatExp outerScale, FloatExp innerScale, int maxIter,
+                                         int frameWidth, int frameHeight) {
+        ReferenceContext context = ReferenceContext.compute(center, innerScale.div(2), maxIter);
+        return new ExpMapRenderer(context, outerScale, innerScale, frameWidth, frameHeight);
+    }
+
+    // 第octave条行带的RGB，stripWidth * rowsPerOctave个像素按行存放
+    public CompletableFuture<int[]> renderStrip(int octave, Executor pool) {
+        if (cancelled) throw new CancellationException();
+        int[] pixels = new int[stripWidth * rowsPerOctave];
+        FloatExp radius = outerRadius.mul(pow2(-octave));
+        boolean deep = radius.compareTo(new FloatExp(1, -320)) <= 0;
+        return CompletableFuture.supplyAsync(() -> stripSeries(radius), pool).thenCompose(series -> {
+            CompletableFuture<?>[] rows = new CompletableFuture<?>[rowsPerOctave];
+            for (int j = 0; j < rowsPerOctave; j++) {
+                int row = j;
+                rows[j] = CompletableFuture.runAsync(() -> renderRow(radius, row, series, deep, pixels), pool);
+            }
+            return CompletableFuture.allOf(rows);
+        }).thenApply(v -> pixels);
+    }
+
+    // 最深一帧的普通图像，帧宽 * 帧高个像素按行存放
+    public CompletableFuture<int[]> renderKeyframe(Executor pool) {
+        if (cancelled) throw new CancellationException();
+        int[] pixels = new int[frameWidth * frameHeight];
+        RenderJob job = new RenderJob(context, new FloatExpComplex(0, 0), innerScale, frameWidth, frameHeight);
+        DrawCall draw = new DrawCall(frameWidth, frameHeight) {
+            @Override
+            public void draw(int x, int y, int w, int h, Color c) {
+                draw(x, y, c);
+            }
+
+            @Override
+            public void draw(int x, int y, Color c) {
+                pixels[y * frameWidth + x] = c.getRGB();
+            }
+        };
+        return job.submit(pool, draw).thenApply(v -> pixels);
+    }
+
+    // 行带外圈上的四点验证级数，整条行带都在这个圆内
+    private SeriesCoefficient stripSeries(FloatExp radius) {
+        FloatExp d = radius.mul(Math.sqrt(0.5));
+        return perturbation.getSeriesCoefficient(context.getOrbit(), Arrays.asList(
+                new FloatExpComplex(d, d),
+                new FloatExpComplex(d.rev(), d),
+                new FloatExpComplex(d, d.rev()),
+                new FloatExpComplex(d.rev(), d.rev())
+        ));
+    }
+
+    private void renderRow(FloatExp radius, int row, SeriesCoefficient series, boolean deep, int[] pixels) {
+        int maxIter = context.getMaxIter();
+        FloatExp r = radius.mul(Math.pow(2, -(double) row / rowsPerOctave));
+        int offset = row * stripWidth;
+        for (int i = 0; i < stripWidth; i++) {
+            if (cancelled) throw new CancellationException();
+            double smooth = perturbation.iterate(new FloatExpComplex(r.mul(cos[i]), r.mul(sin[i])), context.getOrbit(), series, deep);
+            pixels[offset + i] = ((smooth >= maxIter) ? Color.BLACK : Palette.getColor(smooth)).getRGB();
+        }
+    }
+
+    // 2^e，指数超出double范围时仍然有效
+    private static FloatExp pow2(double e) {
+        double l = e * Math.log10(2);
+        int exp = (int) Math.floor(l);
+        return new FloatExp(Math.pow(10, l - exp), exp);
+    }
+
+    private static double log2(FloatExp x) {
+        return (Math.log10(x.getBase()) + x.getExp()) / Math.log10(2);
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public ReferenceContext getContext() {
+        return context;
+    }
+
+    public FloatExp getOuterScale() {
+        return outerScale;
+    }
+
+    public FloatExp getInnerScale() {
+        return innerScale;
+    }
+
+    // 最外一帧到最深一帧缩放的倍数取以2为底的对数
+    public double getZoomOctaves() {
+        return zoomOctaves;
+    }
+
+    public int getOctaves() {
+        return octaves;
+    }
+
+    public int getStripWidth() {
+        return stripWidth;
+    }
+
+    public int getRowsPerOctave() {
+        return rowsPerOctave;
+    }
+
+    public double getCornerFactor() {
+        return cornerFactor;
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+}
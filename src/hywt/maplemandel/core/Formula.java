@@ -0,0 +1,78 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.math.MathContext;
+
+// 迭代公式：参考轨道的高精度一步、扰动内核、级数递推与逃逸检测
+// 扰动内核由每个公式各自实现完整的循环，子类都是final，JIT在循环内看到的是单态的代码，每个像素只有一次虚调用
+// 所有公式的参考轨道都从initial开始，变基时回到轨道起点：delta <- Z_n + delta - Z_0
+public abstract class Formula {
+    public static final Formula MANDELBROT = new MandelbrotFormula();
+    public static final Formula BURNING_SHIP = new BurningShipFormula();
+    public static final Formula CUBIC = new CubicFormula();
+
+    // 以k为参数的z^2+k，像素坐标作为迭代起点
+    public static Formula julia(DeepComplex k) {
+        return new JuliaFormula(k);
+    }
+
+    public abstract String getName();
+
+    // 区分同名公式的不同参数，用于轨道缓存
+    public String getKey() {
+        return getName();
+    }
+
+    // 参考点c处轨道的第0个点
+    DeepComplex initial(DeepComplex c) {
+        return new DeepComplex(0, 0);
+    }
+
+    // 参考轨道的一步
+    abstract DeepComplex step(DeepComplex z, DeepComplex c, MathContext mc);
+
+    // double下的一步，z原地更新；压缩存储的轨道用来预测下一个点，只要求结果确定
+    abstract void stepDouble(double[] z, double cRe, double cIm);
+
+    // 不使用级数时像素的初始delta，c为像素相对参考点的偏移
+    FloatExpComplex initialDelta(FloatExpComplex c) {
+        return new FloatExpComplex(0, 0);
+    }
+
+    // 与Perturbation.getPTIter相同的约定：从第start次迭代、参考轨道的第refStart个点开始，逃逸的像素带有平滑的小数部分
+    abstract double getPTIter(Perturbation p, Complex delta, Complex origin, ReferenceOrbit reference,
+                              int start, int refStart, PixelStateBuffer states, int index);
+
+    // 与Perturbation.getPTIterFloatExp相同的约定，delta超出1e-160后返回交给double内核
+    abstract Parcel<Integer, FloatExpComplex> getPTIterFloatExp(Perturbation p, FloatExpComplex delta, FloatExpComplex origin,
+                                                                ReferenceOrbit reference, int start, int refStart,
+                                                                PixelStateBuffer states, int index);
+
+    // 不可解析的公式（如Burning Ship）没有级数，所有像素从第0次迭代开始
+    boolean hasSeries() {
+        return true;
+    }
+
+    SeriesCoefficient newSeries(int terms) {
+        return new SeriesCoefficient(terms);
+    }
+
+    // 以参考轨道的第n个点Z推进级数系数
+    abstract void iterateSeries(SeriesCoefficient series, FloatExpComplex Z);
+
+    // FloatExp的一步扰动，用于级数的验证点
+    abstract FloatExpComplex perturb(FloatExpComplex delta, FloatExpComplex Z, FloatExpComplex dc);
+
+    // 公式的次数，|z|很大时每步|z|约变为|z|^degree，用于平滑迭代次数
+    int degree() {
+        return 2;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
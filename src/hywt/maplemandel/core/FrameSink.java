@@ -0,0 +1,8 @@
+package hywt.maplemandel.core;
+
+import java.io.IOException;
+
+// 接收编码后的视频帧，帧按帧号从0开始依次写入
+public interface FrameSink {
+    void writeFrame(int index, byte[] data) throws IOException;
+}
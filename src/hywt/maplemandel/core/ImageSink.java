@@ -0,0 +1,13 @@
+package hywt.maplemandel.core;
+
+import java.io.IOException;
+
+// 按行接收RGB像素的输出目标，行按从上到下的顺序写入
+public interface ImageSink {
+    void begin(int width, int height) throws IOException;
+
+    void writeRow(int[] rgb) throws IOException;
+
+    // 写完所有行后调用，不关闭底层流
+    void finish() throws IOException;
+}
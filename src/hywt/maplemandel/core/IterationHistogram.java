@@ -0,0 +1,119 @@
+package hywt.maplemandel.core;
+
+import java.util.function.Consumer;
+
+// 逃逸像素迭代次数的直方图，从迭代缓存统计，不重新计算像素
+// 按列分成若干段交给线程池，每段各自统计最小最大值与直方图，全部结束后合并
+// 迭代次数的范围超过MAX_BINS时每个桶包含多个迭代次数，桶内按平滑迭代次数线性插值
+final class IterationHistogram {
+    private static final int MAX_BINS = 1 << 16;
+
+    private final int min;
+    private final int max;
+    private final int binWidth;
+    private final int[] counts;
+    // below[b]为前b个桶的像素数之和
+    private final long[] below;
+    private final long total;
+
+    private IterationHistogram(int min, int max, int binWidth, int[] counts) {
+        this.min = min;
+        this.max = max;
+        this.binWidth = binWidth;
+        this.counts = counts;
+        this.below = new long[counts.length + 1];
+        for (int b = 0; b < counts.length; b++) below[b + 1] = below[b] + counts[b];
+        this.total = below[counts.length];
+    }
+
+    // submit把任务交给线程池，await等待已提交的任务全部结束
+    static IterationHistogram build(int[][] iterations, int maxIter, int parts,
+                                    Consumer<Runnable> submit, Runnable await) {
+        int width = iterations.length;
+        parts = Math.max(1, Math.min(parts, width));
+        int[] mins = new int[parts];
+        int[] maxs = new int[parts];
+        for (int p = 0; p < parts; p++) {
+            int part = p;
+            int from = width * p / parts;
+            int to = width * (p + 1) / parts;
+            submit.accept(() -> {
+                int lo = Integer.MAX_VALUE;
+                int hi = Integer.MIN_VALUE;
+                for (int x = from; x < to; x++) {
+                    for (int it : iterations[x]) {
+                        if (it <= 0 || it >= maxIter) continue;
+                        if (it < lo) lo = it;
+                        if (it > hi) hi = it;
+                    }
+                }
+                mins[part] = lo;
+                maxs[part] = hi;
+            });
+        }
+        await.run();
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int p = 0; p < parts; p++) {
+            min = Math.min(min, mins[p]);
+            max = Math.max(max, maxs[p]);
+        }
+        if (min > max) return new IterationHistogram(0, 0, 1, new int[1]);
+
+        int lo = min;
+        int binWidth = (int) (((long) max - min) / MAX_BINS + 1);
+        int bins = (int) (((long) max - min) / binWidth + 1);
+        int[][] local = new int[parts][];
+        for (int p = 0; p < parts; p++) {
+            int part = p;
+            int from = width * p / parts;
+            int to = width * (p + 1) / parts;
+            submit.accept(() -> {
+                int[] counts = new int[bins];
+                for (int x = from; x < to; x++) {
+                    for (int it : iterations[x]) {
+                        if (it <= 0 || it >= maxIter) continue;
+                        counts[(it - lo) / binWidth]++;
+                    }
+                }
+                local[part] = counts;
+            });
+        }
+        await.run();
+        int[] counts = new int[bins];
+        for (int[] part : local) {
+            if (part == null) continue;
+            for (int b = 0; b < bins; b++) counts[b] += part[b];
+        }
+        return new IterationHistogram(min, max, binWidth, counts);
+    }
+
+    // 直方图均衡：迭代次数比该像素小的逃逸像素所占的比例，在[0, 1]内
+    double rank(double iter) {
+        if (total == 0) return 0;
+        double pos = (iter - min) / binWidth;
+        if (pos <= 0) return 0;
+        int b = (int) pos;
+        if (b >= counts.length) return 1;
+        return (below[b] + (pos - b) * counts[b]) / total;
+    }
+
+    // 对数密度：迭代次数相对最小值的对数，按最大值归一化到[0, 1]
+    double logDensity(double iter) {
+        if (max <= min) return 0;
+        double pos = Math.log1p(Math.max(0, iter - min)) / Math.log1p(max + 1 - min);
+        return Math.min(1, pos);
+    }
+
+    int getMin() {
+        return min;
+    }
+
+    int getMax() {
+        return max;
+    }
+
+    long getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,218 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CancellationException;
+
+// 以k为参数的Julia集 z^2 + k，像素坐标是z的初值，参考轨道从参考点本身开始
+// 扰动没有dc项：delta' = (2Z + delta) * delta，delta的初值为像素相对参考点的偏移
+// 轨道起点Z_0不为0，变基时 delta <- Z_n + delta - Z_0，判断条件为 |Z_n + delta - Z_0| < |delta|
+final class JuliaFormula extends Formula {
+    private final DeepComplex k;
+    private final double kRe;
+    private final double kIm;
+
+    // 复制一份，视图中心的DeepComplex在缩放时会被原地修改精度
+    JuliaFormula(DeepComplex k) {
+        this.k = new DeepComplex(k.getRe(), k.getIm());
+        this.kRe = k.getRe().doubleValue();
+        this.kIm = k.getIm().doubleValue();
+    }
+
+    public DeepComplex getParameter() {
+        return k;
+    }
+
+    @Override
+    public String getName() {
+        return "Julia";
+    }
+
+    @Override
+    public String getKey() {
+        return "julia," + k.getRe().stripTrailingZeros() + "," + k.getIm().stripTrailingZeros();
+    }
+
+    @Override
+    DeepComplex initial(DeepComplex c) {
+        return new DeepComplex(c.getRe(), c.getIm());
+    }
+
+    @Override
+    DeepComplex step(DeepComplex z, DeepComplex c, MathContext mc) {
+        BigDecimal re = z.getRe();
+        BigDecimal im = z.getIm();
+        BigDecimal x = re.multiply(re, mc).subtract(im.multiply(im, mc), mc).add(k.getRe(), mc);
+        BigDecimal y = re.multiply(im, mc).multiply(BigDecimal.valueOf(2), mc).add(k.getIm(), mc);
+        return new DeepComplex(x, y);
+    }
+
+    @Override
+    void stepDouble(double[] z, double cRe, double cIm) {
+        double re = z[0];
+        double im = z[1];
+        z[0] = re * re - im * im + kRe;
+        z[1] = 2 * re * im + kIm;
+    }
+
+    @Override
+    FloatExpComplex initialDelta(FloatExpComplex c) {
+        return c.copy();
+    }
+
+    @Override
+    double getPTIter(Perturbation p, Complex delta, Complex origin, ReferenceOrbit reference,
+                     int start, int refStart, PixelStateBuffer states, int index) {
+        int maxIter = p.getMaxIter();
+        double bailout = p.getBailout();
+        double dRe = delta.getRe();
+        double dIm = delta.getIm();
+        OrbitWindow window = reference.window();
+        double[] refRe = window.re;
+        double[] refIm = window.im;
+        int mask = window.mask;
+        FloatExpComplex first = reference.getDeep(0);
+        double z0r = first.getRe().doubleValue();
+        double z0i = first.getIm().doubleValue();
+        double tmp;
+
+        int iter = start;
+        double norm = 0;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        double forcedRe = 0;
+        double forcedIm = 0;
+        int available = window.await(refIter + 1);
+        refRe = window.re;
+        refIm = window.im;
+        while (iter < maxIter) {
+            if ((iter & Perturbation.CANCEL_CHECK_MASK) == 0 && p.isCancelled()) throw new CancellationException();
+            double Zr = refRe[refIter & mask];
+            double Zi = refIm[refIter & mask];
+
+            tmp = (2 * Zr + dRe) * dRe - (2 * Zi + dIm) * dIm;
+            dIm = 2 * (Zr * dIm + Zi * dRe + dRe * dIm);
+            dRe = tmp;
+            refIter++;
+
+            double valR = refRe[refIter & mask] + dRe;
+            double valI = refIm[refIter & mask] + dIm;
+            double val = valR * valR + valI * valI;
+            if (val > bailout) {
+                norm = val;
+                break;
+            }
+            double nr = valR - z0r;
+            double ni = valI - z0i;
+            double rebased = nr * nr + ni * ni;
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                refRe = window.re;
+                refIm = window.im;
+            }
+            if (rebased < dRe * dRe + dIm * dIm || refIter == available - 1) {
+                if (states != null && forcedIter < 0 && available == reference.capacity() && rebased >= dRe * dRe + dIm * dIm) {
+                    forcedIter = iter + 1;
+                    forcedRe = dRe;
+                    forcedIm = dIm;
+                    forcedRef = refIter;
+                }
+                dRe = nr;
+                dIm = ni;
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        p.finish(states, index, iter, rebases, dRe, dIm, refIter, forcedIter, forcedRe, forcedIm, forcedRef);
+        return iter < maxIter ? p.smooth(iter, norm) : iter;
+    }
+
+    @Override
+    Parcel<Integer, FloatExpComplex> getPTIterFloatExp(Perturbation p, FloatExpComplex delta, FloatExpComplex origin,
+                                                       ReferenceOrbit reference, int start, int refStart,
+                                                       PixelStateBuffer states, int index) {
+        int maxIter = p.getMaxIter();
+        OrbitWindow window = reference.window();
+        FloatExpComplex[] ref = window.deep();
+        int mask = window.mask;
+        FloatExpComplex z0 = reference.getDeep(0);
+
+        int iter = start;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        FloatExpComplex forcedDelta = null;
+        int available = window.await(refIter + 1);
+        ref = window.deep;
+        Parcel<Integer, FloatExpComplex> result = null;
+        while (iter < maxIter) {
+            if ((iter & Perturbation.CANCEL_CHECK_MASK) == 0 && p.isCancelled()) throw new CancellationException();
+            delta = delta.mul(ref[refIter & mask].mul(2).add(delta));
+            refIter++;
+
+            if (delta.getRe().scale() > -160 && delta.getIm().scale() > -160) {
+                result = new Parcel<>(iter, delta);
+                break;
+            }
+            FloatExpComplex val = ref[refIter & mask].add(delta);
+            if (val.abs().doubleValue() > p.getBailout()) break;
+            FloatExpComplex rebased = val.sub(z0);
+            FloatExp len = rebased.abs();
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                ref = window.deep;
+            }
+            if (len.compareTo(delta.abs()) < 0 || refIter == available - 1) {
+                if (states != null && forcedIter < 0 && available == reference.capacity() && len.compareTo(delta.abs()) >= 0) {
+                    forcedIter = iter + 1;
+                    forcedDelta = delta.copy();
+                    forcedRef = refIter;
+                }
+                delta = rebased.copy();
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        return p.finish(states, index, iter, rebases, result, delta, refIter, forcedIter, forcedDelta, forcedRef);
+    }
+
+    // 级数以像素偏移为变量，delta_0 = 偏移本身
+    @Override
+    SeriesCoefficient newSeries(int terms) {
+        SeriesCoefficient series = new SeriesCoefficient(terms);
+        series.setCoefficient(0, new FloatExpComplex(1, 0));
+        return series;
+    }
+
+    @Override
+    void iterateSeries(SeriesCoefficient series, FloatExpComplex Z) {
+        int terms = series.getTerms();
+        FloatExpComplex Z2 = Z.mul(2);
+        FloatExpComplex[] next = new FloatExpComplex[terms];
+        for (int i = 0; i < terms; i++) {
+            FloatExpComplex c = Z2.mul(series.getCoefficient(i));
+            for (int n = 0; n + 1 <= i; n++) {
+                c = c.add(series.getCoefficient(n).mul(series.getCoefficient(i - 1 - n)));
+            }
+            next[i] = c;
+        }
+        series.update(next);
+    }
+
+    @Override
+    FloatExpComplex perturb(FloatExpComplex delta, FloatExpComplex Z, FloatExpComplex dc) {
+        return delta.mul(Z.mul(2).add(delta));
+    }
+}
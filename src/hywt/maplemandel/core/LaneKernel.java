@@ -0,0 +1,252 @@
+package hywt.maplemandel.core;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// 多通道的double扰动内核：每条通道一个像素，同时推进以利用指令级并行与SIMD，结果与逐像素的getPTIter相同
+// advance只做没有分支的迭代，遇到逃逸或变基的那一步后返回；变基、等待参考轨道、达到maxIter等少见情况在这里逐通道处理
+// 通道结束后立即换入下一个像素，没有像素可换的空闲通道复制某条活动通道的状态，避免产生额外的事件
+// 启动时选择实现：-Dmaplemandel.lanes=vector|scalar|off，默认在加载了jdk.incubator.vector模块时使用向量实现
+abstract class LaneKernel {
+    static final String MODE = select();
+
+    final int lanes;
+    // 每条通道的状态，advance直接读写
+    final double[] dRe;
+    final double[] dIm;
+    final double[] cRe;
+    final double[] cIm;
+    final double[] valRe;
+    final double[] valIm;
+    final int[] ref;
+    // 逃逸半径的平方，advance中与|z|^2比较
+    double bailout;
+
+    private final int[] iter;
+    private final int[] pixel;
+    private final int[] forcedIter;
+    private final int[] forcedRef;
+    private final double[] forcedRe;
+    private final double[] forcedIm;
+
+    private Perturbation perturbation;
+    private ReferenceOrbit reference;
+    private int maxIter;
+    private PixelStateBuffer states;
+    private int[] index;
+    private double[] out;
+    private double[] deltaRe;
+    private double[] deltaIm;
+    private double[] originRe;
+    private double[] originIm;
+    private int count;
+    private int start;
+    private int next;
+    private int active;
+
+    LaneKernel(int lanes) {
+        this.lanes = lanes;
+        dRe = new double[lanes];
+        dIm = new double[lanes];
+        cRe = new double[lanes];
+        cIm = new double[lanes];
+        valRe = new double[lanes];
+        valIm = new double[lanes];
+        ref = new int[lanes];
+        iter = new int[lanes];
+        pixel = new int[lanes];
+        forcedIter = new int[lanes];
+        forcedRef = new int[lanes];
+        forcedRe = new double[lanes];
+        forcedIm = new double[lanes];
+    }
+
+    private static String select() {
+        String mode = System.getProperty("maplemandel.lanes", "vector");
+        if (mode.equals("off") || mode.equals("scalar")) return mode;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                if (VectorLaneKernel.supported()) return "vector";
+            } catch (LinkageError ignored) {
+            }
+        }
+        return "scalar";
+    }
+
+    static boolean isEnabled() {
+        return !MODE.equals("off");
+    }
+
+    static LaneKernel create() {
+        return MODE.equals("vector") ? new VectorLaneKernel() : new ScalarLaneKernel();
+    }
+
+    // 从各通道的ref开始推进至多steps步，调用方保证这些步中不会越过已发布的参考轨道，也不会达到maxIter
+    // 返回实际推进的步数；返回后dRe/dIm为新的delta，valRe/valIm为最后一步合并参考后的值，ref保持不变
+    abstract int advance(double[] refRe, double[] refIm, int steps);
+
+    // 计算count个像素，第i个像素从delta(i)、第start次迭代开始，结果写入out[i]，maxIter与逃逸半径取自p
+    // 与getPTIter相同，逃逸的像素带有平滑的小数部分
+    // states不为null时按index[i]保存或移除达到maxIter的状态，返回变基次数
+    long run(Perturbation p, ReferenceOrbit reference, int start,
+             double[] deltaRe, double[] deltaIm, double[] originRe, double[] originIm, int count,
+             double[] out, PixelStateBuffer states, int[] index, BooleanSupplier cancelled) {
+        this.perturbation = p;
+        this.reference = reference;
+        this.maxIter = p.getMaxIter();
+        this.bailout = p.getBailout();
+        this.start = start;
+        this.deltaRe = deltaRe;
+        this.deltaIm = deltaIm;
+        this.originRe = originRe;
+        this.originIm = originIm;
+        this.count = count;
+        this.out = out;
+        this.states = states;
+        this.index = index;
+        next = 0;
+        active = 0;
+
+        int capacity = reference.capacity();
+        int available = reference.await(start + 1);
+        // 轨道数组随发布的点扩大，每次await之后重新读取
+        double[] refRe = reference.re;
+        double[] refIm = reference.im;
+        long rebases = 0;
+
+        for (int l = 0; l < lanes; l++) {
+            pixel[l] = -1;
+            load(l);
+        }
+        fillIdle();
+        while (active > 0) {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            int steps = Perturbation.CANCEL_CHECK_MASK + 1;
+            for (int l = 0; l < lanes; l++) {
+                steps = Math.min(steps, Math.min(maxIter - iter[l], available - 2 - ref[l]));
+            }
+
+            if (steps > 0) {
+                int k = advance(refRe, refIm, steps);
+                for (int l = 0; l < lanes; l++) {
+                    ref[l] += k;
+                    if (pixel[l] < 0) continue;
+                    double val = valRe[l] * valRe[l] + valIm[l] * valIm[l];
+                    if (val > bailout) {
+                        finish(l, iter[l] + k - 1, val);
+                        continue;
+                    }
+                    iter[l] += k;
+                    if (val < dRe[l] * dRe[l] + dIm[l] * dIm[l]) {
+                        dRe[l] = valRe[l];
+                        dIm[l] = valIm[l];
+                        ref[l] = 0;
+                        rebases++;
+                    }
+                    if (iter[l] >= maxIter) finish(l, iter[l], 0);
+                }
+            } else {
+                // 有通道接近已发布的末尾或maxIter，所有通道按getPTIter的循环体走一步
+                for (int l = 0; l < lanes; l++) {
+                    if (pixel[l] < 0) continue;
+                    int r = ref[l];
+                    double Zr = refRe[r];
+                    double Zi = refIm[r];
+                    double dr = dRe[l];
+                    double di = dIm[l];
+                    double tmp = (2 * Zr + dr) * dr - (2 * Zi + di) * di + cRe[l];
+                    di = 2 * (Zr * di + Zi * dr + dr * di) + cIm[l];
+                    dr = tmp;
+                    r++;
+
+                    double vr = refRe[r] + dr;
+                    double vi = refIm[r] + di;
+                    double val = vr * vr + vi * vi;
+                    if (val > bailout) {
+                        finish(l, iter[l], val);
+                        continue;
+                    }
+                    if (r + 1 >= available) {
+                        available = reference.await(r + 1);
+                        refRe = reference.re;
+                        refIm = reference.im;
+                    }
+                    if (val < dr * dr + di * di || r == available - 1) {
+                        if (states != null && forcedIter[l] < 0 && available == capacity && val >= dr * dr + di * di) {
+                            forcedIter[l] = iter[l] + 1;
+                            forcedRe[l] = dr;
+                            forcedIm[l] = di;
+                            forcedRef[l] = r;
+                        }
+                        dr = vr;
+                        di = vi;
+                        r = 0;
+                        rebases++;
+                    }
+                    dRe[l] = dr;
+                    dIm[l] = di;
+                    ref[l] = r;
+                    if (++iter[l] >= maxIter) finish(l, iter[l], 0);
+                }
+            }
+            fillIdle();
+        }
+        return rebases;
+    }
+
+    // 把下一个像素装入通道l，起点已达到maxIter的像素直接结束
+    private void load(int l) {
+        while (next < count) {
+            int p = next++;
+            pixel[l] = p;
+            dRe[l] = deltaRe[p];
+            dIm[l] = deltaIm[p];
+            cRe[l] = originRe[p];
+            cIm[l] = originIm[p];
+            ref[l] = start;
+            iter[l] = start;
+            forcedIter[l] = -1;
+            if (start < maxIter) {
+                active++;
+                return;
+            }
+            save(l, start, 0);
+        }
+        pixel[l] = -1;
+    }
+
+    // norm为逃逸时的|z|^2，未逃逸时不使用
+    private void finish(int l, int it, double norm) {
+        save(l, it, norm);
+        active--;
+        load(l);
+    }
+
+    private void save(int l, int it, double norm) {
+        int p = pixel[l];
+        out[p] = it < maxIter ? perturbation.smooth(it, norm) : it;
+        if (states == null) return;
+        if (it < maxIter) {
+            states.remove(index[p]);
+        } else if (forcedIter[l] >= 0) {
+            states.save(index[p], forcedRe[l], 0, forcedIm[l], 0, forcedRef[l], forcedIter[l], false);
+        } else {
+            states.save(index[p], dRe[l], 0, dIm[l], 0, ref[l], iter[l], false);
+        }
+    }
+
+    private void fillIdle() {
+        if (active == lanes || active == 0) return;
+        int source = 0;
+        while (pixel[source] < 0) source++;
+        for (int l = 0; l < lanes; l++) {
+            if (pixel[l] >= 0) continue;
+            dRe[l] = dRe[source];
+            dIm[l] = dIm[source];
+            cRe[l] = cRe[source];
+            cIm[l] = cIm[source];
+            ref[l] = ref[source];
+            iter[l] = iter[source];
+        }
+    }
+}
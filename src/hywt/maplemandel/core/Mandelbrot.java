@@ -5,45 +5,109 @@ import hywt.maplemandel.core.numtype.DeepComplex;
 import hywt.maplemandel.core.numtype.FloatExp;
 import hywt.maplemandel.core.numtype.FloatExpComplex;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 public class Mandelbrot {
-
-    private static final FloatExp ESCAPE_RADIUS = new FloatExp(1000);
+    private static final Logger LOGGER = Logger.getLogger(Mandelbrot.class.getName());
+
+    private static final int COARSE_STEP = 16;
+    private static final int COARSE_MIN_ORBIT = 1000;
+    private static final int REFINE_TILE = 64;
+    // 自动迭代次数：初始值按级数跳过的迭代次数与参考轨道的逃逸位置估计，不低于AUTO_MIN_ITER
+    private static final int AUTO_MIN_ITER = 1024;
+    private static final int AUTO_MAX_ITER = 1 << 24;
+    private static final int AUTO_SKIP_FACTOR = 25;
+    private static final int AUTO_SEED_ROUNDS = 3;
+    // 在间距不小于AUTO_CHECK_STEP的细化层后检查：达到maxIter的像素超过AUTO_MIN_FRACTION，
+    // 且在[maxIter/2, maxIter)逃逸的像素达到其AUTO_TAIL_RATIO时，说明还有大量像素被截断，maxIter翻倍
+    private static final int AUTO_CHECK_STEP = 8;
+    private static final double AUTO_MIN_FRACTION = 0.001;
+    private static final double AUTO_TAIL_RATIO = 0.05;
     private ThreadPoolExecutor executor;
     private DeepComplex center;
     private FloatExp scale;
     private int maxIter;
     private int[][] iterations;
+    // 本次绘制中猜测填充的像素所在的细化层（与左右或上下相邻已知像素的距离），0为计算得到或沿用上一帧
+    private byte[][] guessLevel;
+    // 逃逸像素平滑迭代次数的小数部分，着色时加到iterations上
+    private float[][] fraction;
+    private double[][] distance;
     private MandelbrotStats stats;
     private int width;
     private int height;
     private double baseStep;
-    private boolean drawing;
+    private volatile boolean drawing;
+    private final AtomicInteger generation;
+    private int renderGeneration;
+    private final Object renderLock;
+    private RenderHandle current;
     private List<Future<?>> futures;
-    private List<FloatExpComplex> reference;
-    private List<Complex> refComplex;
+    private volatile ReferenceOrbit reference;
+    private volatile DeepComplex referenceEnd;
+    private DeepComplex referencePoint;
+    private FloatExpComplex referenceOffset;
+    private int referencePeriod;
+    // 当前参考轨道的有效位数，在startReference时按当时的scale确定，延长轨道时沿用
+    private int orbitPrecision;
+    private boolean nucleusReference;
+    private Thread referenceThread;
     private SeriesCoefficient coefficient;
+    private Perturbation perturbation;
+    private Formula formula;
+    private double bailout;
+    private Colouring colouring;
+    private IterationHistogram histogram;
     private RecalcFlags flags;
-    private Thread mandelThread;
     private boolean multiThreaded;
+    private boolean distanceEstimation;
+    private volatile StatsSnapshot lastSnapshot;
+    private OrbitCache orbitCache;
+    private int aaSamples;
+    private int aaBudget;
+    private int aaThreshold;
+    // 上一次抗锯齿的采样结果，迭代缓存或抗锯齿参数改变时作废
+    private volatile Supersamples supersamples;
+    private int[][] previous;
+    private double previewX;
+    private double previewY;
+    private double previewFactor;
+    private int previewMaxIter;
+    private boolean preview;
+    private boolean autoIteration;
+    private int resumeFrom;
+    private final PixelStateBuffer unfinished;
 
     public Mandelbrot(int width, int height) {
         this.center = new DeepComplex(BigDecimal.ZERO, BigDecimal.ZERO);
         this.scale = new FloatExp(4);
         this.maxIter = 256;
         this.iterations = new int[width][height];
+        this.fraction = new float[width][height];
+        this.distance = new double[width][height];
+        this.guessLevel = new byte[width][height];
         this.width = width;
         this.height = height;
         int min = Math.min(width, height);
         baseStep = 1d / min;
 
         this.stats = new MandelbrotStats(width * height);
+        this.formula = Formula.MANDELBROT;
+        this.bailout = Perturbation.DEFAULT_BAILOUT;
+        this.colouring = Colouring.ITERATION;
+        this.perturbation = new Perturbation(formula, maxIter, bailout, stats, this::stale);
+        this.unfinished = new PixelStateBuffer(width * height);
+        this.aaBudget = width * height;
+        this.aaThreshold = 3;
 
         drawing = false;
+        generation = new AtomicInteger();
+        renderLock = new Object();
         futures = Collections.synchronizedList(new ArrayList<>());
         flags = new RecalcFlags();
         int numThreads = Runtime.getRuntime().availableProcessors();
@@ -63,15 +127,49 @@ public class Mandelbrot {
         return new FloatExpComplex(scale.mul(deltaX), scale.mul(deltaY));
     }
 
+    // 像素相对参考点的偏移，参考点不在视图中心时加上中心到参考点的偏移
+    private FloatExpComplex referenceDelta(double x, double y) {
+        FloatExpComplex delta = getDeepDelta(x, y);
+        if (referenceOffset == null) return delta;
+        return delta.add(referenceOffset).copy();
+    }
+
     private void clearCache() {
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
                 iterations[x][y] = 0;
+                fraction[x][y] = 0;
+                distance[x][y] = 0;
             }
         }
+        unfinished.clear();
+        resumeFrom = 0;
+        supersamples = null;
+    }
+
+    // 缩放前保存当前迭代次数，下一帧开始时按新视图重投影作为预览
+    // (x, y)为新视图中心在旧视图中的像素坐标，factor为新旧像素尺寸之比
+    // 连续缩放而未绘制时与上一次保存的变换合并
+    private void savePreview(double x, double y, double factor) {
+        if (preview) {
+            previewX = previewX + (x - width / 2.0) * previewFactor;
+            previewY = previewY + (y - height / 2.0) * previewFactor;
+            previewFactor *= factor;
+            return;
+        }
+        if (previous == null) previous = new int[width][height];
+        for (int i = 0; i < width; i++) {
+            System.arraycopy(iterations[i], 0, previous[i], 0, height);
+        }
+        previewX = x;
+        previewY = y;
+        previewFactor = factor;
+        previewMaxIter = maxIter;
+        preview = true;
     }
 
     public void zoomIn(int x, int y) {
+        savePreview(x, y, 0.25);
         FloatExpComplex delta = getDeepDelta(x, y);
         setScale(scale.div(4));
         center = center.add(delta.toDeepComplex());
@@ -83,6 +181,7 @@ public class Mandelbrot {
     }
 
     public void zoomOut(int x, int y) {
+        savePreview(x, y, 4);
         FloatExpComplex delta = getDeepDelta(x, y);
         setScale(scale.mul(4));
         center = center.add(delta.toDeepComplex());
@@ -105,14 +204,23 @@ public class Mandelbrot {
     }
 
     public void zoomOut(double scale) {
+        savePreview(width / 2.0, height / 2.0, scale);
         if (scale == 2) {
             int[][] newMap = new int[width][height];
+            float[][] newFraction = new float[width][height];
+            double[][] newDist = new double[width][height];
             for (int x = 0; x < width; x += 2) {
                 for (int y = 0; y < height; y += 2) {
                     newMap[width / 4 + x / 2 - 1][height / 4 + y / 2 - 1] = iterations[x][y];
+                    newFraction[width / 4 + x / 2 - 1][height / 4 + y / 2 - 1] = fraction[x][y];
+                    // 像素尺寸翻倍，距离估计减半
+                    newDist[width / 4 + x / 2 - 1][height / 4 + y / 2 - 1] = distance[x][y] / 2;
                 }
             }
             iterations = newMap;
+            fraction = newFraction;
+            distance = newDist;
+            unfinished.clear();
         } else {
             clearCache();
         }
@@ -124,6 +232,7 @@ public class Mandelbrot {
         this.center = c;
         setScale(scale);
         flags.reset();
+        preview = false;
         clearCache();
     }
 
@@ -135,13 +244,31 @@ public class Mandelbrot {
         return maxIter;
     }
 
+    // 提高maxIter时保留已计算的像素，已逃逸的结果不会改变
+    // 达到旧maxIter的像素在下一次绘制开始时从保存的状态继续，参考轨道从末尾延长
+    // 降到像素实际计算到的maxIter以下时放弃待继续的状态，迭代次数不低于新maxIter的像素清零重新计算
     public void setMaxIter(int maxIter) {
-        if (maxIter > this.maxIter) {
-            flags.setReference(true);
-            flags.setApproximation(true);
-            clearCache();
+        int computed = resumeFrom > 0 ? resumeFrom : this.maxIter;
+        supersamples = null;
+        if (maxIter > computed) {
+            resumeFrom = computed;
+        } else {
+            resumeFrom = 0;
+            if (maxIter < computed) {
+                unfinished.clear();
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        if (iterations[x][y] < maxIter) continue;
+                        iterations[x][y] = 0;
+                        fraction[x][y] = 0;
+                        distance[x][y] = 0;
+                        guessLevel[x][y] = 0;
+                    }
+                }
+            }
         }
         this.maxIter = maxIter;
+        this.perturbation = new Perturbation(formula, maxIter, bailout, stats, this::stale);
     }
 
     public FloatExp getScale() {
@@ -150,78 +277,160 @@ public class Mandelbrot {
 
     public void setScale(FloatExp scale) {
         this.scale = scale;
+        unfinished.clear();
+        supersamples = null;
         this.center.setPrecision(-scale.scale() + 10);
         flags.setApproximation(true);
     }
 
+    // 推进绘制代数，正在进行的绘制在下一次检查时停止
+    // 工作线程不会被中断，迭代内核每隔CANCEL_CHECK_MASK+1次迭代检查一次
     public void cancel() {
+        generation.incrementAndGet();
         drawing = false;
-        synchronized (futures) {
-            Iterator<Future<?>> iterator = futures.iterator();
-            while (iterator.hasNext()) {
-                Future<?> future = iterator.next();
-                future.cancel(true);
-                iterator.remove(); // Remove the future after it's canceled to avoid ConcurrentModificationException
-            }
+        ReferenceOrbit orbit = reference;
+        if (orbit != null && !orbit.isComplete()) {
+            // 未完成的参考轨道作废，下次绘制时重新计算
+            orbit.cancel();
+            flags.setReference(true);
+            flags.setApproximation(true);
         }
-        if (mandelThread != null) {
-            mandelThread.interrupt();
+    }
+
+    void cancel(int generation) {
+        if (this.generation.get() == generation) cancel();
+    }
+
+    // 取消正在进行的绘制并等待它的工作线程全部退出，修改视图、缓存或参数之前调用
+    // 只调用cancel时旧绘制的任务可能仍在写入刚清空的缓存，细化会跳过这些非零像素而留在新图像中
+    public void cancelAndWait() {
+        cancel();
+        synchronized (renderLock) {
+            // 绘制在释放renderLock之前已等待自己提交的任务，这里只处理不经过draw提交的任务
+            waitUntilDone();
         }
     }
 
+    int getGeneration() {
+        return generation.get();
+    }
+
     public boolean isDrawing() {
         return drawing;
     }
 
-    public void startDraw(DrawCall drawCall, Callable<Void> onCompleted) {
-        mandelThread = new Thread(() -> {
-            draw(drawCall);
+    // 取消正在进行的绘制并在新线程中开始绘制，旧绘制的工作线程退出后新绘制才开始
+    public RenderHandle startDraw(DrawCall drawCall, Callable<Void> onCompleted) {
+        cancel();
+        RenderHandle handle = new RenderHandle(this, generation.get());
+        Thread thread = new Thread(() -> {
+            draw(drawCall, handle);
             try {
-                if (onCompleted != null) onCompleted.call();
+                if (handle.isCompleted() && onCompleted != null) onCompleted.call();
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
-        });
-        mandelThread.start();
+        }, "render");
+        thread.start();
+        return handle;
+    }
+
+    // 在当前线程中绘制，等待正在进行的绘制结束后开始
+    public void draw(DrawCall draw) {
+        draw(draw, new RenderHandle(this, generation.get()));
+    }
+
+    private void draw(DrawCall draw, RenderHandle handle) {
+        boolean completed = false;
+        try {
+            synchronized (renderLock) {
+                // 等待期间已被更新的绘制取代
+                if (generation.get() != handle.generation) return;
+                renderGeneration = handle.generation;
+                current = handle;
+                try {
+                    render(draw);
+                    completed = !stale();
+                } catch (CancellationException e) {
+                    // 绘制或参考轨道已被取消
+                } finally {
+                    // 提前返回或被取消时等已提交的任务退出后再释放，释放renderLock之后不再有写入缓存的任务
+                    waitUntilDone();
+                    drawing = false;
+                }
+            }
+        } finally {
+            handle.finish(completed);
+        }
     }
 
-    public synchronized void draw(DrawCall draw) {
+    // 本次绘制是否已被取消或取代
+    private boolean stale() {
+        return generation.get() != renderGeneration;
+    }
+
+    private void render(DrawCall draw) {
         drawing = true;
         stats.reset();
+        supersamples = null;
+        for (byte[] column : guessLevel) Arrays.fill(column, (byte) 0);
         int width = draw.getWidth();
         int height = draw.getHeight();
 
-        if (flags.isReference()) {
-            stats.reset();
-            reference = getReference(center);
-
-            refComplex = new ArrayList<>();
-            for (FloatExpComplex floatExp : reference) {
-                refComplex.add(floatExp.toComplex());
-            }
+        long stageStart;
+        if (preview) {
+            stageStart = System.nanoTime();
+            drawPreview(draw);
+            stats.recordStage("preview", stageStart);
+            progress(draw, RenderStage.PREVIEW);
+        }
 
-            flags.setReference(false);
-        } else {
-            stats.refIter.set(reference.size());
+        // 参考轨道未完成时，粗网格计算与级数构建并行进行
+        boolean newReference = flags.isReference();
+        prepareReference();
+        boolean coarse = !reference.isComplete();
+        stageStart = System.nanoTime();
+        RenderEvents.Stage event = RenderEvents.Stage.begin(stats);
+        if (coarse) coarsePass(draw);
+        prepareSeries(width, height);
+        if (coarse) {
+            waitUntilDone();
+            stats.recordStage("coarse", stageStart);
+            event.end("coarse", COARSE_STEP, maxIter, stats);
+            progress(draw, RenderStage.COARSE);
+        }
+        LOGGER.fine(() -> String.valueOf(coefficient));
+
+        if (stale()) return;
+
+        if (resumeFrom > 0) {
+            stageStart = System.nanoTime();
+            event = RenderEvents.Stage.begin(stats);
+            int from = resumeFrom;
+            growReference(maxIter);
+            continueUnfinished(draw, from, 1);
+            stats.recordStage("resume", stageStart);
+            event.end("resume", 1, maxIter, stats);
+            if (stale()) return;
+            resumeFrom = 0;
         }
 
-        if (flags.isApproximation()) {
-            coefficient = getSeriesCoefficient(reference, Arrays.asList(
-                    getDeepDelta(0, 0),
-                    getDeepDelta(0, height - 1),
-                    getDeepDelta(width - 1, 0),
-                    getDeepDelta(width - 1, height - 1)
-            ));
-            flags.setApproximation(false);
+        if (autoIteration && newReference) {
+            stageStart = System.nanoTime();
+            seedMaxIter(draw);
+            stats.recordStage("auto-iteration", stageStart);
+            if (stale()) return;
         }
-        System.out.println(coefficient);
 
         // 先进行间隔计算
         successiveRefinement(draw, 32);
 
-        if (!drawing) return;
+        if (stale()) return;
 
         // 使用智能猜测填充左右像素
+        stageStart = System.nanoTime();
+        event = RenderEvents.Stage.begin(stats);
+        long guessedBefore = stats.guessed.sum();
         for (int y = 0; y < height; y += 2) {
             int finalY = y;
             Runnable r = () -> {
@@ -232,35 +441,41 @@ public class Mandelbrot {
                             int right = iterations[x + 1][finalY];
                             if (left == right) {
                                 iterations[x][finalY] = left;
-                                Color color = (left >= maxIter) ? Color.BLACK : Palette.getColor(left);
+                                guessLevel[x][finalY] = 1;
+                                fraction[x][finalY] = (fraction[x - 1][finalY] + fraction[x + 1][finalY]) / 2;
+                                distance[x][finalY] = distance[x - 1][finalY];
+                                Color color = (left >= maxIter) ? Color.BLACK : Palette.getColor(left + fraction[x][finalY]);
                                 draw.draw(x, finalY, 1, 2, color);
-                                stats.drawn.incrementAndGet();
-                                stats.guessed.incrementAndGet();
+                                stats.drawn.increment();
+                                stats.guessed.increment();
                                 continue;
                             }
                         }
                         // 进行详细计算
                         if (iterations[x][finalY] == 0) {
                             calc(x, finalY, draw, 1, 2);
-                            stats.drawn.incrementAndGet();
+                            stats.drawn.increment();
                         }
                     }
-                    if (Thread.currentThread().isInterrupted()) return;
+                    if (stale()) return;
                 }
             };
-            if (multiThreaded) futures.add(executor.submit(r));
-            else r.run();
+            submit(r);
         }
 
-        try {
-            waitUntilDone();
-        } catch (ConcurrentModificationException e) {
-            return;
-        }
+        waitUntilDone();
+
+        if (stale()) return;
 
-        if (!drawing) return;
+        stats.recordStage("guess-horizontal", stageStart);
+        stats.recordGuessed("guess-horizontal", stats.guessed.sum() - guessedBefore);
+        event.end("guess-horizontal", 2, maxIter, stats);
+        progress(draw, RenderStage.GUESSING);
 
         // 使用智能猜测填充上下像素
+        stageStart = System.nanoTime();
+        event = RenderEvents.Stage.begin(stats);
+        guessedBefore = stats.guessed.sum();
         for (int y = 1; y < height; y += 2) {
             int finalY = y;
             Runnable r = () -> {
@@ -271,35 +486,42 @@ public class Mandelbrot {
                             int bottom = iterations[x][finalY + 1];
                             if (top == bottom) {
                                 iterations[x][finalY] = top;
-                                Color color = (top >= maxIter) ? Color.BLACK : Palette.getColor(top);
+                                guessLevel[x][finalY] = 1;
+                                fraction[x][finalY] = (fraction[x][finalY - 1] + fraction[x][finalY + 1]) / 2;
+                                distance[x][finalY] = distance[x][finalY - 1];
+                                Color color = (top >= maxIter) ? Color.BLACK : Palette.getColor(top + fraction[x][finalY]);
                                 draw.draw(x, finalY, color);
-                                stats.drawn.incrementAndGet();
-                                stats.guessed.incrementAndGet();
+                                stats.drawn.increment();
+                                stats.guessed.increment();
                                 continue;
                             }
                         }
                         // 进行详细计算
                         if (iterations[x][finalY] == 0) {
                             calc(x, finalY, draw, 1, 1);
-                            stats.drawn.incrementAndGet();
+                            stats.drawn.increment();
                         }
                     }
-                    if (Thread.currentThread().isInterrupted()) return;
+                    if (stale()) return;
                 }
             };
-            if (multiThreaded) futures.add(executor.submit(r));
-            else r.run();
-        }
-
-        try {
-            waitUntilDone();
-        } catch (ConcurrentModificationException e) {
-            return;
+            submit(r);
         }
 
-        drawing = false;
+        waitUntilDone();
+        validateGuesses(draw, 1);
+        if (stale()) return;
 
+        stats.recordStage("guess-vertical", stageStart);
+        stats.recordGuessed("guess-vertical", stats.guessed.sum() - guessedBefore);
+        event.end("guess-vertical", 1, maxIter, stats);
+        progress(draw, RenderStage.GUESSING);
 
+        stageStart = System.nanoTime();
+        RenderEvents.Recolour recolour = new RenderEvents.Recolour();
+        recolour.begin();
+        buildHistogram();
+        drawCached(draw);
 //        double[][] diff = new double[width][height];
 //        for (int x = 0; x < width-1; x++) {
 //            for (int y = 0; y < height-1; y++) {
@@ -308,16 +530,6 @@ public class Mandelbrot {
 //                diff[x][y] = Math.sqrt(gradX*gradX+gradY*gradY);
 //            }
 //        }
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                draw.draw(x, y, ((iterations[x][y] >= maxIter) ?
-                        Color.BLACK :
-                        Palette.getColor(
-                                iterations[x][y]
-                        )
-                ));
-            }
-        }
 //        for (int x = 0; x < width; x++) {
 //            for (int y = 0; y < height; y++) {
 //                draw.setRGB(x, y, ((iterations[x][y] >= maxIter) ?
@@ -328,92 +540,842 @@ public class Mandelbrot {
 //                ).getRGB());
 //            }
 //        }
+
+        stats.recordStage("recolour", stageStart);
+        recolour.end(colouring, width * height, histogram, maxIter);
+        progress(draw, RenderStage.RECOLOUR);
+
+        if (aaSamples > 0 && !stale()) {
+            stageStart = System.nanoTime();
+            event = RenderEvents.Stage.begin(stats);
+            antiAlias(draw);
+            stats.recordStage("antialias", stageStart);
+            event.end("antialias", 0, maxIter, stats);
+            progress(draw, RenderStage.ANTI_ALIASING);
+        }
+
+        if (stale()) return;
+        lastSnapshot = stats.snapshot();
+        drawing = false;
+        current.update(RenderStage.COMPLETE, 1);
+        draw.progress(RenderStage.COMPLETE, 1);
+        draw.snapshot(lastSnapshot);
+    }
+
+    // 按当前的着色方式从迭代缓存与保存的抗锯齿采样重新着色，不重新计算像素
+    // 在调用线程上同步执行，界面应在后台线程中调用；正在绘制时不做任何事，绘制结束时会按新的着色方式着色
+    public void recolour(DrawCall draw) {
+        if (drawing) return;
+        synchronized (renderLock) {
+            if (drawing || iterations == null) return;
+            renderGeneration = generation.get();
+            long stageStart = System.nanoTime();
+            RenderEvents.Recolour recolour = new RenderEvents.Recolour();
+            recolour.begin();
+            buildHistogram();
+            drawCached(draw);
+            stats.recordStage("recolour", stageStart);
+            recolour.end(colouring, width * height, histogram, maxIter);
+            if (aaSamples > 0 && !stale()) {
+                stageStart = System.nanoTime();
+                RenderEvents.Stage event = RenderEvents.Stage.begin(stats);
+                Supersamples samples = supersamples;
+                if (samples != null) {
+                    redrawSupersamples(samples, draw);
+                } else {
+                    // 采样已作废（参数改变或上一次绘制未完成），重新计算
+                    antiAlias(draw);
+                }
+                stats.recordStage("antialias", stageStart);
+                event.end("antialias", 0, maxIter, stats);
+            }
+            if (stale()) return;
+            lastSnapshot = stats.snapshot();
+            draw.progress(RenderStage.COMPLETE, 1);
+            draw.snapshot(lastSnapshot);
+        }
+    }
+
+    // 按迭代缓存着色，绘制与重新着色共用；为0的像素尚未计算（绘制未完成），保留已画出的预览
+    private void drawCached(DrawCall draw) {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (iterations[x][y] == 0) continue;
+                draw.draw(x, y, colour(iterations[x][y] + fraction[x][y]));
+            }
+        }
     }
 
+    // 直方图与对数密度着色需要所有逃逸像素的迭代次数分布，按列分段交给线程池统计后合并
+    private void buildHistogram() {
+        if (colouring == Colouring.ITERATION) {
+            histogram = null;
+            return;
+        }
+        histogram = IterationHistogram.build(iterations, maxIter, executor.getMaximumPoolSize() * 4, this::submit, this::waitUntilDone);
+    }
+
+    // 平滑迭代次数到颜色，iter为整数部分加小数部分
+    private Color colour(double iter) {
+        if (iter >= maxIter) return Color.BLACK;
+        IterationHistogram histogram = this.histogram;
+        if (histogram == null) return Palette.getColor(iter);
+        switch (colouring) {
+            case HISTOGRAM:
+                return Palette.getColorAt(histogram.rank(iter));
+            case LOG_DENSITY:
+                return Palette.getColorAt(histogram.logDensity(iter));
+            default:
+                return Palette.getColor(iter);
+        }
+    }
+
+    private void progress(DrawCall draw, RenderStage stage) {
+        double progress = Math.min(1, stats.drawn.sum() / (double) stats.getTotalPixels());
+        current.update(stage, progress);
+        draw.progress(stage, progress);
+        draw.snapshot(stats.snapshot());
+    }
+
+    // 按新视图从上一帧的迭代次数中取样，旧视图之外的像素保持不变
+    private void drawPreview(DrawCall draw) {
+        preview = false;
+        for (int x = 0; x < width; x++) {
+            int ox = (int) Math.floor(previewX + (x - width / 2.0) * previewFactor);
+            if (ox < 0 || ox >= width) continue;
+            for (int y = 0; y < height; y++) {
+                int oy = (int) Math.floor(previewY + (y - height / 2.0) * previewFactor);
+                if (oy < 0 || oy >= height) continue;
+                int it = previous[ox][oy];
+                if (it == 0) continue;
+                draw.draw(x, y, (it >= previewMaxIter) ? Color.BLACK : Palette.getColor(it));
+            }
+        }
+    }
+
+    // 用已发布的部分参考轨道按粗网格计算，到达已发布末尾时重新定基而不等待
+    // 结果只用于显示，不写入迭代缓存
+    private void coarsePass(DrawCall draw) {
+        for (int y = 0; y < height; y += COARSE_STEP) {
+            int finalY = y;
+            Runnable r = () -> {
+                reference.await(Math.min(COARSE_MIN_ORBIT, reference.capacity()) - 1);
+                ReferenceOrbit orbit = reference.prefix();
+                if (orbit.size() < 2) return;
+                for (int x = 0; x < width; x += COARSE_STEP) {
+                    double iter = coarseIterate(referenceDelta(x, finalY), orbit);
+                    Color color = (iter >= maxIter) ? Color.BLACK : Palette.getColor(iter);
+                    draw.draw(x, finalY, COARSE_STEP, COARSE_STEP, color);
+                    if (stale()) return;
+                }
+            };
+            submit(r);
+        }
+    }
+
+    private double coarseIterate(FloatExpComplex c, ReferenceOrbit orbit) {
+        return perturbation.iterateFromStart(c, orbit, isDeep());
+    }
+
+    // 在迭代次数变化剧烈的像素上追加抖动采样，平坦区域不做额外计算
+    // 采样结果保存在supersamples中，重新着色时不必再次计算
+    private void antiAlias(DrawCall draw) {
+        supersamples = null;
+        List<int[]> candidates = new ArrayList<>();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int score = aaScore(x, y);
+                if (score > aaThreshold) candidates.add(new int[]{x, y, score});
+            }
+        }
+        candidates.sort((a, b) -> Integer.compare(b[2], a[2]));
+        int limit = Math.min(candidates.size(), aaBudget / aaSamples);
+        Supersamples samples = new Supersamples(limit, aaSamples);
+
+        int batch = Math.max(1, width);
+        for (int i = 0; i < limit; i += batch) {
+            int from = i;
+            int to = Math.min(limit, i + batch);
+            Runnable r = () -> {
+                for (int j = from; j < to; j++) {
+                    int[] p = candidates.get(j);
+                    supersample(p[0], p[1], samples, j, draw);
+                    if (stale()) return;
+                }
+            };
+            submit(r);
+        }
+
+        waitUntilDone();
+        if (!stale()) supersamples = samples;
+    }
+
+    // 每个像素的位置与aaSamples个采样点的平滑迭代次数，按抗锯齿的处理顺序存放
+    private static class Supersamples {
+        final int[] pixels;
+        final double[] values;
+        final int count;
+
+        Supersamples(int pixels, int count) {
+            this.pixels = new int[pixels];
+            this.values = new double[pixels * count];
+            this.count = count;
+        }
+    }
+
+    private void redrawSupersamples(Supersamples samples, DrawCall draw) {
+        int batch = Math.max(1, width);
+        for (int i = 0; i < samples.pixels.length; i += batch) {
+            int from = i;
+            int to = Math.min(samples.pixels.length, i + batch);
+            Runnable r = () -> {
+                for (int j = from; j < to; j++) {
+                    int p = samples.pixels[j];
+                    draw.draw(p / height, p % height, average(p / height, p % height, samples, j));
+                }
+            };
+            submit(r);
+        }
+        waitUntilDone();
+    }
+
+    private int aaScore(int x, int y) {
+        int it = iterations[x][y];
+        int score = 0;
+        if (x > 0) score = Math.max(score, Math.abs(it - iterations[x - 1][y]));
+        if (x < width - 1) score = Math.max(score, Math.abs(it - iterations[x + 1][y]));
+        if (y > 0) score = Math.max(score, Math.abs(it - iterations[x][y - 1]));
+        if (y < height - 1) score = Math.max(score, Math.abs(it - iterations[x][y + 1]));
+        // 距离估计小于一个像素说明边界穿过该像素
+        if (distanceEstimation && it < maxIter && distance[x][y] < 1) score = Math.max(score, aaThreshold + 1);
+        return score;
+    }
+
+    private void supersample(int x, int y, Supersamples samples, int index, DrawCall draw) {
+        Random random = new Random(((long) x << 32) ^ y);
+        int offset = index * samples.count;
+        for (int i = 0; i < samples.count; i++) {
+            samples.values[offset + i] = iterate(referenceDelta(x + random.nextDouble() - 0.5, y + random.nextDouble() - 0.5));
+        }
+        samples.pixels[index] = x * height + y;
+        draw.draw(x, y, average(x, y, samples, index));
+        stats.supersampled.add(samples.count);
+    }
+
+    // 像素中心与其采样点颜色的平均值
+    private Color average(int x, int y, Supersamples samples, int index) {
+        Color center = colour(iterations[x][y] + fraction[x][y]);
+        int r = center.r;
+        int g = center.g;
+        int b = center.b;
+        int offset = index * samples.count;
+        for (int i = 0; i < samples.count; i++) {
+            Color color = colour(samples.values[offset + i]);
+            r += color.r;
+            g += color.g;
+            b += color.b;
+        }
+        int n = samples.count + 1;
+        return new Color(r / n, g / n, b / n);
+    }
+
+    private void submit(Runnable r) {
+        if (multiThreaded) {
+            futures.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                r.run();
+                stats.recordBusy(Thread.currentThread().getName(), start);
+            }));
+        } else {
+            long start = System.nanoTime();
+            r.run();
+            stats.recordBusy(Thread.currentThread().getName(), start);
+        }
+    }
+
+    // 启动参考轨道计算并构建级数系数，只在标记需要时重新计算
+    // 参考轨道在后台线程中逐步发布，级数与像素计算只在追上它时等待
+    void prepare(int width, int height) {
+        prepareReference();
+        prepareSeries(width, height);
+    }
+
+    private void prepareReference() {
+        // 先清除标记再开始计算：cancel不持有renderLock，在两者之间作废新轨道时设置的标记不会被这里覆盖
+        // 上一次绘制之后被取消的轨道同样重新计算，不会在之后的每次绘制中重复抛出CancellationException
+        ReferenceOrbit orbit = reference;
+        if (flags.isReference() || orbit == null || orbit.isCancelled()) {
+            flags.setReference(false);
+            flags.setApproximation(true);
+            locateReference();
+            startReference();
+        } else {
+            stats.refIter.set(reference.size());
+        }
+    }
+
+    private void prepareSeries(int width, int height) {
+        long stageStart = System.nanoTime();
+        if (flags.isApproximation()) {
+            RenderEvents.Series event = new RenderEvents.Series();
+            event.begin();
+            List<FloatExpComplex> validation = Arrays.asList(
+                    referenceDelta(0, 0),
+                    referenceDelta(0, height - 1),
+                    referenceDelta(width - 1, 0),
+                    referenceDelta(width - 1, height - 1)
+            );
+            coefficient = perturbation.getSeriesCoefficient(reference, validation);
+            event.end(coefficient, validation.size(), scale.scale());
+            flags.setApproximation(false);
+        }
+        stats.recordStage("series", stageStart);
+    }
+
+    // 默认以视图中心为参考点；开启核心定位时在视图内寻找最近的极小集核心
+    // 核心处的参考轨道是周期的，不会逃逸，深处的像素需要的重新定基也更少
+    // 找不到周期或牛顿迭代离开视图时仍使用中心
+    private void locateReference() {
+        referencePoint = center;
+        referenceOffset = null;
+        referencePeriod = 0;
+        if (!nucleusReference || formula != Formula.MANDELBROT) return;
+
+        long start = System.nanoTime();
+        double halfWidth = baseStep * width / 2;
+        double halfHeight = baseStep * height / 2;
+        FloatExp radius = scale.mul(Math.max(halfWidth, halfHeight));
+        Parcel<Integer, DeepComplex> nucleus = new NucleusFinder(-scale.scale() + 20, this::stale).find(center, radius, maxIter);
+        if (nucleus != null) {
+            FloatExpComplex offset = center.sub(nucleus.value).toFloatExp();
+            if (offset.getRe().abs().compareTo(scale.mul(halfWidth)) <= 0 &&
+                    offset.getIm().abs().compareTo(scale.mul(halfHeight)) <= 0) {
+                referencePoint = nucleus.value;
+                referenceOffset = offset;
+                referencePeriod = nucleus.key;
+            }
+        }
+        stats.recordStage("nucleus", start);
+    }
+
+    private void startReference() {
+        DeepComplex c = referencePoint;
+        ReferenceOrbit orbit = new ReferenceOrbit(maxIter, formula, c);
+        int precision = referencePrecision();
+        orbitPrecision = precision;
+        referenceEnd = null;
+        referenceThread = new Thread(() -> computeReference(c, orbit, precision), "reference");
+        referenceThread.setDaemon(true);
+        reference = orbit;
+        referenceThread.start();
+    }
+
+    // 等待已提交的任务真正结束，被取消的任务会在下一次检查时自行退出
     private void waitUntilDone() {
         synchronized (futures) {
-            Iterator<Future<?>> it = futures.listIterator();
+            Iterator<Future<?>> it = futures.iterator();
             while (it.hasNext()) {
                 try {
-                    Future<?> future = it.next();
-                    future.get();
-                    it.remove();
-                } catch (CancellationException e) {
-                } catch (InterruptedException | ExecutionException | ConcurrentModificationException e) {
+                    it.next().get();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof CancellationException)) e.getCause().printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                     return;
                 }
+                it.remove();
+            }
+        }
+    }
+
+    // 新位置的初始maxIter：参考轨道逃逸时像素大多在其附近逃逸，否则按级数跳过的迭代次数估计
+    // 级数直到参考轨道末尾仍然有效时跳过次数被轨道长度截断，先扩大maxIter重新构建级数，最多AUTO_SEED_ROUNDS次
+    private void seedMaxIter(DrawCall draw) {
+        for (int round = 0; round < AUTO_SEED_ROUNDS && maxIter < AUTO_MAX_ITER; round++) {
+            ReferenceOrbit orbit = reference;
+            orbit.awaitComplete();
+            if (orbit.size() < orbit.capacity() || coefficient.getIterationCount() > 2 ||
+                    stats.approx.get() < orbit.size() - 1) break;
+            raiseMaxIter(draw, Math.min(AUTO_MAX_ITER, maxIter * 4), 0);
+            stats.approx.set(0);
+            flags.setApproximation(true);
+            prepareSeries(width, height);
+            if (stale()) return;
+        }
+
+        int seed = Math.max(AUTO_MIN_ITER, coefficient.getIterationCount() * AUTO_SKIP_FACTOR);
+        ReferenceOrbit orbit = reference;
+        if (orbit.isComplete() && orbit.size() < orbit.capacity()) seed = Math.max(seed, orbit.size() * 2);
+        seed = Math.min(seed, AUTO_MAX_ITER);
+        if (seed > maxIter) {
+            raiseMaxIter(draw, seed, 0);
+        } else if (seed < maxIter) {
+            // 还没有计算像素，直接降低，参考轨道比maxIter长不影响计算
+            maxIter = seed;
+            perturbation = new Perturbation(formula, maxIter, bailout, stats, this::stale);
+        }
+    }
+
+    // 统计间距为step的网格上的像素，仍有大量像素被截断时翻倍maxIter
+    private void adjustMaxIter(DrawCall draw, int step) {
+        while (maxIter < AUTO_MAX_ITER && !stale()) {
+            long total = 0;
+            long atMax = 0;
+            long tail = 0;
+            for (int x = 0; x < width; x += step) {
+                for (int y = 0; y < height; y += step) {
+                    int iter = iterations[x][y];
+                    total++;
+                    if (iter >= maxIter) atMax++;
+                    else if (iter >= maxIter / 2) tail++;
+                }
             }
+            if (atMax <= total * AUTO_MIN_FRACTION || tail < atMax * AUTO_TAIL_RATIO) return;
+            raiseMaxIter(draw, Math.min(AUTO_MAX_ITER, maxIter * 2), step);
         }
     }
 
+    // 绘制过程中提高maxIter，延长参考轨道后继续已达到旧maxIter的像素
+    private void raiseMaxIter(DrawCall draw, int newMaxIter, int step) {
+        int oldMaxIter = maxIter;
+        maxIter = newMaxIter;
+        perturbation = new Perturbation(formula, newMaxIter, bailout, stats, this::stale);
+        growReference(newMaxIter);
+        continueUnfinished(draw, oldMaxIter, step);
+    }
+
+    // 达到oldMaxIter的像素从保存的状态继续迭代到当前maxIter
+    // 没有保存状态的像素（如距离估计模式、猜测填充）清零，在间距为step的网格上的立即重新计算，其余留给后续的细化
+    private void continueUnfinished(DrawCall draw, int oldMaxIter, int step) {
+        List<int[]> restart = new ArrayList<>();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (iterations[x][y] < oldMaxIter || unfinished.contains(x * height + y)) continue;
+                iterations[x][y] = 0;
+                if (guessLevel[x][y] != 0) {
+                    guessLevel[x][y] = 0;
+                    stats.guessed.decrement();
+                }
+                if (step > 0 && x % step == 0 && y % step == 0) restart.add(new int[]{x, y});
+            }
+        }
+
+        int size = Math.max(1, step);
+        int[] pixels = unfinished.pixels();
+        for (int i = 0; i < pixels.length; i += width) {
+            int from = i;
+            int to = Math.min(pixels.length, i + width);
+            Runnable r = () -> {
+                for (int j = from; j < to; j++) {
+                    int p = pixels[j];
+                    int x = p / height;
+                    int y = p % height;
+                    int start = unfinished.getIter(p);
+                    double smooth = perturbation.resume(referenceDelta(x, y), reference, unfinished, p);
+                    // 已被取消时缓存可能已为新视图清空，不再写入
+                    if (stale()) return;
+                    int iter = (int) smooth;
+                    iterations[x][y] = iter;
+                    fraction[x][y] = (float) (smooth - iter);
+                    stats.iterations.add(iter - start);
+                    draw.draw(x, y, size, size, (iter >= maxIter) ? Color.BLACK : Palette.getColor(smooth));
+                    if (stale()) return;
+                }
+            };
+            submit(r);
+        }
+        for (int i = 0; i < restart.size(); i += width) {
+            List<int[]> part = restart.subList(i, Math.min(restart.size(), i + width));
+            Runnable r = () -> {
+                for (int[] p : part) {
+                    calc(p[0], p[1], draw, size, size);
+                    if (stale()) return;
+                }
+            };
+            submit(r);
+        }
+
+        waitUntilDone();
+    }
+
+    // 参考轨道达到容量而未逃逸时扩大容量，从保存的末尾高精度z继续计算
+    // 没有末尾z（如从更长的缓存中截取）时按新容量重新计算，轨道内容不变，保存的参考位置仍然有效
+    private void growReference(int capacity) {
+        ReferenceOrbit orbit = reference;
+        if (orbit.capacity() >= capacity) return;
+        orbit.awaitComplete();
+        if (orbit.size() < orbit.capacity()) return;
+        DeepComplex z = referenceEnd;
+        if (z == null) {
+            startReference();
+            return;
+        }
+        // 延长的是新的轨道对象，已交出的轨道（如ReferenceContext中的）保持完成状态不变
+        ReferenceOrbit grown = orbit.grow(capacity);
+        reference = grown;
+        DeepComplex c = referencePoint;
+        int from = grown.size();
+        int precision = orbitPrecision;
+        referenceThread = new Thread(() -> {
+            long start = System.nanoTime();
+            RenderEvents.Reference event = new RenderEvents.Reference();
+            event.begin();
+            DeepComplex end = extendReference(c, z, grown, precision);
+            if (grown.isCancelled()) return;
+            referenceEnd = end;
+            grown.complete();
+            stats.recordStage("reference", start);
+            event.end(formula, grown, from, precision, false);
+        }, "reference");
+        referenceThread.setDaemon(true);
+        referenceThread.start();
+    }
+
+    // 第一层之后的每一层中，左右（或上下）相邻的两个已知像素迭代次数相同时猜测填充中间的像素
+    // 每层结束后用本层计算的像素验证更粗层的猜测，见validateGuesses
     private void successiveRefinement(DrawCall draw, int startSize) {
         int step = startSize;
 
         // Initial refinement
-        refine(draw, 0, 0, step, step, step, step);
+        long stageStart = System.nanoTime();
+        RenderEvents.Stage event = RenderEvents.Stage.begin(stats);
+        List<RefineTile> tiles = new ArrayList<>();
+        refine(draw, 0, 0, step, step, step, step, 0, 0, 0, tiles);
+        finishRefine(tiles, "refine-" + step, stageStart);
+        event.end("refine-" + step, step, maxIter, stats);
+        progress(draw, RenderStage.REFINEMENT);
+        if (autoIteration && step >= AUTO_CHECK_STEP && !stale()) {
+            stageStart = System.nanoTime();
+            adjustMaxIter(draw, step);
+            stats.recordStage("auto-iteration", stageStart);
+        }
 
         // Loop to progressively refine
         while (step > 2) { // Assuming we stop refining at a 1x1 pixel grid
             int halfStep = step >> 1; // Calculate half step size
 
             // Refine quadrants
-            refine(draw, halfStep, 0, step, step, halfStep, step);
-            refine(draw, 0, halfStep, halfStep, step, halfStep, halfStep);
+            stageStart = System.nanoTime();
+            event = RenderEvents.Stage.begin(stats);
+            long guessedBefore = stats.guessed.sum();
+            tiles = new ArrayList<>();
+            refine(draw, halfStep, 0, step, step, halfStep, step, halfStep, 0, step, tiles);
+            refine(draw, 0, halfStep, halfStep, step, halfStep, halfStep, 0, halfStep, step, tiles);
+            validateGuesses(draw, halfStep);
+            finishRefine(tiles, "refine-" + halfStep, stageStart);
+            stats.recordGuessed("refine-" + halfStep, stats.guessed.sum() - guessedBefore);
+            event.end("refine-" + halfStep, halfStep, maxIter, stats);
+            progress(draw, RenderStage.REFINEMENT);
+            if (autoIteration && halfStep >= AUTO_CHECK_STEP && !stale()) {
+                stageStart = System.nanoTime();
+                adjustMaxIter(draw, halfStep);
+                stats.recordStage("auto-iteration", stageStart);
+            }
 
             step = halfStep; // Halve the step size to refine further
         }
     }
 
-    private void refine(DrawCall draw, int startX, int startY, int stepX, int stepY, int drawWidth, int drawHeight) {
-        for (int y = startY; y < height; y += stepY) {
-            int finalY = y;
+    // 一次细化中的一个方块，预估代价来自上一层在该方块内的迭代次数
+    private static class RefineTile {
+        final int x;
+        final int y;
+        final long predicted;
+        volatile long actual;
+
+        RefineTile(int x, int y, long predicted) {
+            this.x = x;
+            this.y = y;
+            this.predicted = predicted;
+        }
+    }
+
+    // 按方块分配本层需要计算的像素，预估代价大的方块先提交，避免每层末尾少数线程拖尾
+    // knownStep为上一层网格的间距，为0时没有可用的预估
+    // (guessX, guessY)不为0时，与该偏移两侧的已知像素迭代次数相同的像素直接填充，不进行计算
+    private void refine(DrawCall draw, int startX, int startY, int stepX, int stepY, int drawWidth, int drawHeight,
+                        int guessX, int guessY, int knownStep, List<RefineTile> finished) {
+        List<RefineTile> tiles = new ArrayList<>();
+        for (int ty = 0; ty < height; ty += REFINE_TILE) {
+            for (int tx = 0; tx < width; tx += REFINE_TILE) {
+                tiles.add(new RefineTile(tx, ty, predictCost(tx, ty, startX, startY, stepX, stepY, guessX, guessY, knownStep)));
+            }
+        }
+        tiles.sort((a, b) -> Long.compare(b.predicted, a.predicted));
+
+        for (int i = 0; i < tiles.size(); i++) {
+            RefineTile tile = tiles.get(i);
+            int x0 = firstAligned(tile.x, startX, stepX);
+            int y0 = firstAligned(tile.y, startY, stepY);
+            int x1 = Math.min(width, tile.x + REFINE_TILE);
+            int y1 = Math.min(height, tile.y + REFINE_TILE);
+            boolean sampled = i % RenderEvents.TILE_SAMPLE == 0;
             Runnable r = () -> {
-                for (int x = startX; x < width; x += stepX) {
-                    if (iterations[x][finalY] == 0) {
-                        calc(x, finalY, draw, drawWidth, drawHeight);
+                RenderEvents.Tile event = sampled ? new RenderEvents.Tile() : null;
+                if (sampled) event.begin();
+                if (guessX > 0 || guessY > 0) {
+                    guessTile(x0, y0, x1, y1, stepX, stepY, guessX, guessY, draw, drawWidth, drawHeight);
+                }
+                // 只统计本次计算的像素，猜测填充的与之前已知的像素不计入实际代价
+                long actual = 0;
+                if (useLanes()) {
+                    actual = calcLanes(x0, y0, x1, y1, stepX, stepY, draw, drawWidth, drawHeight);
+                    if (stale()) return;
+                }
+                for (int y = y0; y < y1; y += stepY) {
+                    for (int x = x0; x < x1; x += stepX) {
+                        if (iterations[x][y] == 0) {
+                            calc(x, y, draw, drawWidth, drawHeight);
+                            actual += iterations[x][y];
+                            stats.drawn.increment();
+                        }
+                        if (stale()) return;
                     }
-                    stats.drawn.incrementAndGet();
-                    if (Thread.currentThread().isInterrupted()) return;
+                }
+                tile.actual = actual;
+                if (sampled) {
+                    int pixels = countAligned(tile.x, x1, startX, stepX) * countAligned(tile.y, y1, startY, stepY);
+                    event.end(Math.min(stepX, stepY), tile.x, tile.y, pixels, actual, tile.predicted);
                 }
             };
-            if (multiThreaded) futures.add(executor.submit(r));
-            else r.run();
+            submit(r);
         }
 
-        try {
+        waitUntilDone();
+        finished.addAll(tiles);
+    }
+
+    // 方块内本层的像素与(±guessX, ±guessY)处的两个已知像素迭代次数相同时填充为该值，小数部分取平均
+    // 两侧的像素属于更粗的网格或本层更早的一次refine，已经全部完成，不会与本次写入冲突
+    private void guessTile(int x0, int y0, int x1, int y1, int stepX, int stepY, int guessX, int guessY,
+                           DrawCall draw, int w, int h) {
+        byte level = (byte) Math.max(guessX, guessY);
+        for (int y = y0; y < y1; y += stepY) {
+            if (y + guessY >= height) break;
+            for (int x = x0; x < x1; x += stepX) {
+                if (x + guessX >= width) break;
+                if (iterations[x][y] != 0 || !guessable(x, y, guessX, guessY)) continue;
+                int before = iterations[x - guessX][y - guessY];
+                iterations[x][y] = before;
+                fraction[x][y] = (fraction[x - guessX][y - guessY] + fraction[x + guessX][y + guessY]) / 2;
+                distance[x][y] = distance[x - guessX][y - guessY];
+                guessLevel[x][y] = level;
+                draw.draw(x, y, w, h, (before >= maxIter) ? Color.BLACK : Palette.getColor(before + fraction[x][y]));
+                stats.drawn.increment();
+                stats.guessed.increment();
+            }
+        }
+    }
+
+    // 用间距为level的一层验证更粗层的猜测：猜测的像素与相距level的计算得到的像素迭代次数不同时，说明边界可能穿过两者之间，重新计算
+    // 重新计算后迭代次数改变的像素，以它为一侧猜测出的像素（沿坐标轴相距为其猜测层）也不再可信，依次重新计算
+    private void validateGuesses(DrawCall draw, int level) {
+        List<int[]> suspects = new ArrayList<>();
+        for (int x = 0; x < width; x += 2 * level) {
+            for (int y = 0; y < height; y += 2 * level) {
+                int guessed = guessLevel[x][y];
+                if (guessed <= level) continue;
+                int it = iterations[x][y];
+                if (contradicts(x - level, y, it) || contradicts(x + level, y, it)
+                        || contradicts(x, y - level, it) || contradicts(x, y + level, it)) {
+                    suspects.add(new int[]{x, y});
+                }
+            }
+        }
+        while (!suspects.isEmpty() && !stale()) {
+            List<int[]> changed = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < suspects.size(); i += width) {
+                List<int[]> part = suspects.subList(i, Math.min(suspects.size(), i + width));
+                Runnable r = () -> {
+                    for (int[] p : part) {
+                        int x = p[0];
+                        int y = p[1];
+                        int guessed = iterations[x][y];
+                        guessLevel[x][y] = 0;
+                        calc(x, y, draw, level, level);
+                        stats.guessed.decrement();
+                        if (iterations[x][y] != guessed) changed.add(p);
+                        if (stale()) return;
+                    }
+                };
+                submit(r);
+            }
             waitUntilDone();
-        } catch (ConcurrentModificationException e) {
+
+            Set<Integer> next = new LinkedHashSet<>();
+            for (int[] p : changed) {
+                for (int d = level; d <= Byte.MAX_VALUE; d <<= 1) {
+                    addDependent(next, p[0] - d, p[1], d);
+                    addDependent(next, p[0] + d, p[1], d);
+                    addDependent(next, p[0], p[1] - d, d);
+                    addDependent(next, p[0], p[1] + d, d);
+                }
+            }
+            suspects = new ArrayList<>();
+            for (int p : next) suspects.add(new int[]{p / height, p % height});
         }
     }
 
+    // (x, y)是计算得到的像素且迭代次数不是it
+    private boolean contradicts(int x, int y, int it) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return false;
+        int other = iterations[x][y];
+        return other != 0 && other != it && guessLevel[x][y] == 0;
+    }
+
+    private void addDependent(Set<Integer> dependents, int x, int y, int d) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return;
+        if (guessLevel[x][y] == d) dependents.add(x * height + y);
+    }
+
+    // 方块内上一层网格点的平均迭代次数乘以本层要计算的像素数
+    // 与实际代价的统计一致，已知的像素与guessTile将填充的像素不计入
+    private long predictCost(int tx, int ty, int startX, int startY, int stepX, int stepY,
+                             int guessX, int guessY, int knownStep) {
+        if (knownStep == 0) return 0;
+        int x1 = Math.min(width, tx + REFINE_TILE);
+        int y1 = Math.min(height, ty + REFINE_TILE);
+        long sum = 0;
+        int known = 0;
+        for (int y = firstAligned(ty, 0, knownStep); y < y1; y += knownStep) {
+            for (int x = firstAligned(tx, 0, knownStep); x < x1; x += knownStep) {
+                sum += iterations[x][y];
+                known++;
+            }
+        }
+        if (known == 0) return 0;
+        long pixels = 0;
+        for (int y = firstAligned(ty, startY, stepY); y < y1; y += stepY) {
+            for (int x = firstAligned(tx, startX, stepX); x < x1; x += stepX) {
+                if (iterations[x][y] == 0 && !guessable(x, y, guessX, guessY)) pixels++;
+            }
+        }
+        return sum * pixels / known;
+    }
+
+    // guessTile会填充(x, y)：(±guessX, ±guessY)处的两个已知像素迭代次数相同
+    private boolean guessable(int x, int y, int guessX, int guessY) {
+        if (guessX == 0 && guessY == 0) return false;
+        if (x + guessX >= width || y + guessY >= height) return false;
+        int before = iterations[x - guessX][y - guessY];
+        return before != 0 && before == iterations[x + guessX][y + guessY];
+    }
+
+    // 区间[from, ...)中第一个满足 i = start (mod step) 的位置
+    private static int firstAligned(int from, int start, int step) {
+        return from + Math.floorMod(start - from, step);
+    }
+
+    private static int countAligned(int from, int to, int start, int step) {
+        int first = firstAligned(from, start, step);
+        return first >= to ? 0 : (to - 1 - first) / step + 1;
+    }
+
+    private void finishRefine(List<RefineTile> tiles, String stage, long stageStart) {
+        stats.recordStage(stage, stageStart);
+        long predicted = 0;
+        long actual = 0;
+        long error = 0;
+        for (RefineTile tile : tiles) {
+            predicted += tile.predicted;
+            actual += tile.actual;
+            error += Math.abs(tile.predicted - tile.actual);
+        }
+        stats.recordSchedule(stage, tiles.size(), predicted, actual, error);
+    }
+
     private void calc(int x, int y, DrawCall draw, int w, int h) {
-        FloatExpComplex c = getDeepDelta(x, y);
+        FloatExpComplex c = referenceDelta(x, y);
         int iter;
-        if (coefficient.getIterationCount() > 2) {
-            FloatExpComplex approx = approximate(coefficient, c);
-            if (scale.compareTo(new FloatExp(1, -320)) > 0) {
-                iter = getPTIter(approx.toComplex(), c.toComplex(), refComplex, coefficient.getIterationCount() + 1);
-            } else {
-                if (approx.getRe().scale() < -160 || approx.getIm().scale() < -160) {
-                    Parcel<Integer, FloatExpComplex> result = getPTIterFloatExp(approx, c, reference, coefficient.getIterationCount() + 1);
-                    iter = result.value == null ? result.key : getPTIter(result.value.toComplex(), c.toComplex(), refComplex, result.key + 1);
-                } else
-                    iter = getPTIter(approx.toComplex(), c.toComplex(), refComplex, coefficient.getIterationCount() + 1);
-            }
+        double smooth;
+        Parcel<Double, Double> result = null;
+        if (distanceEstimation) {
+            result = calcDE(c);
+            smooth = result.key;
+            iter = (int) smooth;
         } else {
-            if (scale.compareTo(new FloatExp(1, -320)) > 0) {
-                iter = getPTIter(c.toComplex(), refComplex);
-            } else {
-                Parcel<Integer, FloatExpComplex> result = getPTIterFloatExp(c, c, reference, 0);
-                iter = result.value == null ? result.key : getPTIter(result.value.toComplex(), c.toComplex(), refComplex, result.key + 1);
-            }
+            smooth = perturbation.iterate(c, reference, coefficient, isDeep(), unfinished, x * height + y);
+            iter = (int) smooth;
         }
+        // 已被取消时缓存可能已为新视图清空，不再写入
+        if (stale()) return;
+        if (result != null) distance[x][y] = result.value;
         iterations[x][y] = iter;
+        fraction[x][y] = (float) (smooth - iter);
+        stats.iterations.add(iter - (coefficient.getIterationCount() > 2 ? coefficient.getIterationCount() + 1 : 0));
 
-        Color color = (iter >= maxIter) ? Color.BLACK : Palette.getColor(iter);
+        Color color = (iter >= maxIter) ? Color.BLACK : Palette.getColor(smooth);
         draw.draw(x, y, w, h, color);
     }
 
+    // 多通道内核只用于double范围内、不计算距离估计且轨道未压缩的情况
+    private boolean useLanes() {
+        return LaneKernel.isEnabled() && formula == Formula.MANDELBROT && !distanceEstimation && !isDeep()
+                && !reference.isCompressed();
+    }
+
+    // 方块内本层待计算的像素一起交给多通道内核，结果与逐个calc相同，返回计算的像素的迭代次数之和
+    private long calcLanes(int x0, int y0, int x1, int y1, int stepX, int stepY, DrawCall draw, int w, int h) {
+        int capacity = countAligned(x0, x1, x0, stepX) * countAligned(y0, y1, y0, stepY);
+        int[] index = new int[capacity];
+        int count = 0;
+        for (int y = y0; y < y1; y += stepY) {
+            for (int x = x0; x < x1; x += stepX) {
+                if (iterations[x][y] == 0) index[count++] = x * height + y;
+            }
+        }
+        if (count == 0) return 0;
+
+        SeriesCoefficient coeff = coefficient;
+        int start = coeff.getIterationCount() > 2 ? coeff.getIterationCount() + 1 : 0;
+        double[] deltaRe = new double[count];
+        double[] deltaIm = new double[count];
+        double[] originRe = new double[count];
+        double[] originIm = new double[count];
+        for (int i = 0; i < count; i++) {
+            FloatExpComplex c = referenceDelta(index[i] / height, index[i] % height);
+            if (start > 0) {
+                Complex approx = Perturbation.approximate(coeff, c).toComplex();
+                deltaRe[i] = approx.getRe();
+                deltaIm[i] = approx.getIm();
+            }
+            Complex origin = c.toComplex();
+            originRe[i] = origin.getRe();
+            originIm[i] = origin.getIm();
+        }
+
+        double[] out = new double[count];
+        perturbation.iterateLanes(reference, start, deltaRe, deltaIm, originRe, originIm, count, out, unfinished, index);
+        if (stale()) return 0;
+        long actual = 0;
+        for (int i = 0; i < count; i++) {
+            int x = index[i] / height;
+            int y = index[i] % height;
+            int iter = (int) out[i];
+            iterations[x][y] = iter;
+            fraction[x][y] = (float) (out[i] - iter);
+            stats.iterations.add(iter - start);
+            Color color = (iter >= maxIter) ? Color.BLACK : Palette.getColor(out[i]);
+            draw.draw(x, y, w, h, color);
+            actual += iter;
+            stats.drawn.increment();
+        }
+        return actual;
+    }
+
+    private double iterate(FloatExpComplex c) {
+        return perturbation.iterate(c, reference, coefficient, isDeep());
+    }
+
+    private Parcel<Double, Double> calcDE(FloatExpComplex c) {
+        return perturbation.calcDE(c, reference, coefficient, scale.mul(baseStep), isDeep());
+    }
+
+    // 像素偏移小于double的表示范围时改用FloatExp内核
+    private boolean isDeep() {
+        return scale.compareTo(new FloatExp(1, -320)) <= 0;
+    }
+
     // 获取迭代次数的方法
     private int getIter(double cRe, double cIm) {
         double zRe = 0.0;
@@ -448,10 +1410,51 @@ public class Mandelbrot {
         return new Color((int) red, (int) green, (int) blue);
     }
 
+    SeriesCoefficient getCoefficient() {
+        return coefficient;
+    }
+
+    ReferenceOrbit getReferenceOrbit() {
+        return reference;
+    }
+
+    // 当前视图的参考轨道与级数，可交给RenderJob绘制附近的其他视图
+    // 参考轨道或级数尚未就绪时返回null
+    public ReferenceContext getReferenceContext() {
+        ReferenceOrbit orbit = reference;
+        SeriesCoefficient coeff = coefficient;
+        if (orbit == null || !orbit.isComplete() || coeff == null || flags.isApproximation()) return null;
+        if (formula != Formula.MANDELBROT) return null;
+        // 级数在视图四角验证过，取短边的一半作为正方形半边长，参考点偏离中心时减去偏移
+        FloatExp radius = scale.mul(baseStep * Math.min(width, height) / 2);
+        if (referenceOffset != null) {
+            FloatExp re = referenceOffset.getRe().abs();
+            FloatExp im = referenceOffset.getIm().abs();
+            radius = radius.sub(re.compareTo(im) > 0 ? re : im);
+            if (radius.doubleValue() <= 0) return null;
+        }
+        // 交出已完成部分的视图与级数的副本，之后延长或取消当前轨道不影响共享的上下文
+        return new ReferenceContext(referencePoint, radius, maxIter, orbit.prefix(), coeff.copy());
+    }
+
+    Perturbation getPerturbation() {
+        return perturbation;
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
     public MandelbrotStats getStats() {
         return stats;
     }
 
+    // 上一帧完成时的统计快照
+    public StatsSnapshot getLastSnapshot() {
+        return lastSnapshot;
+    }
+
     public Parameter getParameter() {
         return new Parameter(center, scale, maxIter);
     }
@@ -459,141 +1462,187 @@ public class Mandelbrot {
     public void loadParameter(Parameter p) {
         gotoLocation(p.center, p.scale);
         setMaxIter(p.iterations);
+        // 缓存已清空，没有可以继续的像素
+        resumeFrom = 0;
     }
 
-    private List<FloatExpComplex> getReference(DeepComplex c) {
-        List<FloatExpComplex> referencePoints = new ArrayList<>();
-        int precision = -scale.scale() + 10;
-        DeepComplex z = new DeepComplex(0, 0).setPrecision(precision);
-        MathContext mc = new MathContext(precision);
-
-        for (int i = 0; i < this.maxIter; i++) {
-            BigDecimal re = z.getRe();
-            BigDecimal im = z.getIm();
-            BigDecimal x2 = re.multiply(re, mc);
-            BigDecimal y2 = im.multiply(im, mc);
-
-            FloatExpComplex fl = z.toFloatExp();
-            if (fl.abs().compareTo(ESCAPE_RADIUS) > 0) break;
-            referencePoints.add(fl);
-
-            BigDecimal x = x2.subtract(y2, mc).add(c.getRe(), mc);
-            BigDecimal y = re.multiply(im, mc).multiply(BigDecimal.valueOf(2), mc).add(c.getIm(), mc);
-
-            z = new DeepComplex(x, y).setPrecision(precision);
-            stats.refIter.incrementAndGet();
-        }
-        return referencePoints;
+    // 同步计算完整的参考轨道
+    ReferenceOrbit getReference(DeepComplex c) {
+        ReferenceOrbit orbit = new ReferenceOrbit(maxIter, formula, c);
+        extendReference(c, formula.initial(c), orbit, referencePrecision());
+        orbit.complete();
+        return orbit;
     }
 
-    private SeriesCoefficient getSeriesCoefficient(List<FloatExpComplex> reference, List<FloatExpComplex> validation) {
-        SeriesCoefficient coeff = new SeriesCoefficient(6);
-        List<FloatExpComplex> iterV = new ArrayList<>(validation);
-        try {
-            for (int n = 0; n < reference.size(); n++) {
-                FloatExpComplex Z = reference.get(n);
-
-                coeff.iterate(Z);
-
-                for (int i = 0; i < validation.size(); i++) {
-                    FloatExpComplex v = iterV.get(i);
-                    FloatExpComplex v2 = v.mul(Z).mul(2).addMut(v.mul(v)).addMut(validation.get(i));
-                    FloatExpComplex approx = approximate(coeff, validation.get(i));
-                    double error = Math.abs((approx.getRe().div(v2.getRe()).abs().addMut(approx.getIm().div(v2.getIm()).abs()))
-                            .subMut(new FloatExp(2)).doubleValue());
-//                    if(i==0)System.out.println(v2+" "+ approx+" "+error);
-                    if (error > 1e-5 || Z.add(v2).abs().doubleValue() > 4 || Double.isNaN(error)) {
-                        coeff.undo();
-                        coeff.setIterationCount(n - 1);
-                        return coeff;
+    // 计算参考轨道并发布到orbit，有缓存时先载入缓存，不足的部分从缓存末尾继续计算
+    private void computeReference(DeepComplex c, ReferenceOrbit orbit, int precision) {
+        long start = System.nanoTime();
+        RenderEvents.Reference event = new RenderEvents.Reference();
+        event.begin();
+        DeepComplex z = formula.initial(c);
+        String key = null;
+        if (orbitCache != null) {
+            try {
+                key = formula == Formula.MANDELBROT ? OrbitCache.key(c, precision)
+                        : OrbitCache.key(formula.getKey(), c, precision);
+                OrbitCache.Entry entry = orbitCache.load(key, orbit);
+                if (entry != null) {
+                    int n = orbit.size();
+                    stats.refIter.set(n);
+                    if (entry.escaped || entry.count >= orbit.capacity()) {
+                        if (!entry.escaped && entry.count == orbit.capacity()) referenceEnd = entry.last;
+                        orbit.complete();
+                        stats.recordStage("reference", start);
+                        event.end(formula, orbit, n, precision, true);
+                        return;
                     }
-                    iterV.set(i, v2);
+                    z = entry.last;
                 }
-                stats.approx.incrementAndGet();
+            } catch (IOException e) {
+                e.printStackTrace();
+                key = null;
             }
-        } catch (ArithmeticException e) {
+        }
 
+        int from = orbit.size();
+        z = extendReference(c, z, orbit, precision);
+        if (orbit.isCancelled()) return;
+        referenceEnd = z;
+        orbit.complete();
+        stats.recordStage("reference", start);
+        event.end(formula, orbit, from, precision, from > 0);
+
+        if (key != null) {
+            try {
+                orbitCache.store(key, orbit, z, orbit.size() < orbit.capacity());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-        return new SeriesCoefficient(4);
     }
 
-    private FloatExpComplex approximate(SeriesCoefficient coeff, FloatExpComplex c) {
-        FloatExpComplex result = new FloatExpComplex(0, 0);
-        FloatExpComplex cn = c.copy();
-        for (int i = 0; i < coeff.getTerms(); i++) {
-            result.addMut(coeff.getCoefficient(i).mul(cn));
-            cn = cn.mulMut(c);
-        }
-        return result;
+    // 从z继续计算参考轨道直到maxIter或逃逸，返回下一个高精度z；precision由调用方在开始计算时确定
+    DeepComplex extendReference(DeepComplex c, DeepComplex z, ReferenceOrbit orbit, int precision) {
+        return orbit.extend(formula, c, z, precision, stats.refIter);
     }
 
-    private int getPTIter(Complex origin, List<Complex> reference) {
-        return getPTIter(new Complex(0, 0), origin, reference, 0);
+    // 参考轨道的有效位数，浅层时不低于double的精度再留几位余量
+    // Julia集与Burning Ship的参考轨道多在混沌区域，只有10位时舍入误差会被放大成错误的迭代次数
+    private int referencePrecision() {
+        return Math.max(-scale.scale() + 10, 24);
     }
 
-    private int getPTIter(Complex delta, Complex origin, List<Complex> reference, int start) {
-        double dRe = delta.getRe();
-        double dIm = delta.getIm();
-        double tmp;
+    public boolean isAutoIteration() {
+        return autoIteration;
+    }
 
-        int iter = start;
-        int refIter = start;
-        while (iter < maxIter) {
-            Complex Z = reference.get(refIter);
+    // 自动迭代次数：新位置按级数与参考轨道估计maxIter，粗细化层发现截断时从保存的状态继续提高
+    public void setAutoIteration(boolean autoIteration) {
+        this.autoIteration = autoIteration;
+    }
 
-            // 计算delta的影响
-            tmp = (2 * Z.getRe() + dRe) * dRe - (2 * Z.getIm() + dIm) * dIm + origin.getRe();
-            dIm = 2 * (Z.getRe() * dIm + Z.getIm() * dRe + dRe * dIm) + origin.getIm();
-            dRe = tmp;
-            refIter++;
+    public boolean isNucleusReference() {
+        return nucleusReference;
+    }
 
-            Complex Z2 = reference.get(refIter); // 合并参考与delta
-            double valR = Z2.getRe() + dRe;
-            double valI = Z2.getIm() + dIm;
-            double val = valR * valR + valI * valI; // 逃逸检测
+    // 参考点定位到视图内的极小集核心，下一次绘制时重新计算参考轨道
+    public void setNucleusReference(boolean nucleusReference) {
+        if (nucleusReference == this.nucleusReference) return;
+        this.nucleusReference = nucleusReference;
+        flags.setReference(true);
+        flags.setApproximation(true);
+        clearCache();
+    }
 
-            if (val > 4) return iter;
-            if (val < dRe * dRe + dIm * dIm || refIter == reference.size() - 1) { // 检测是否需要变基
-                dRe = valR;
-                dIm = valI;
-                refIter = 0;
-            }
-            iter++;
-        }
-        return iter;
+    // 当前参考点所在核心的周期，参考点为视图中心时为0
+    public int getReferencePeriod() {
+        return referencePeriod;
     }
 
+    public Formula getFormula() {
+        return formula;
+    }
 
-    private Parcel<Integer, FloatExpComplex> getPTIterFloatExp(FloatExpComplex delta, FloatExpComplex origin, List<FloatExpComplex> reference, int start) {
-        FloatExpComplex tmp;
+    // 切换迭代公式，参考轨道、级数与已计算的像素都失效
+    // 距离估计、多像素内核与核心定位只针对Mandelbrot，其他公式下关闭
+    public void setFormula(Formula formula) {
+        if (formula == this.formula) return;
+        this.formula = formula;
+        if (formula != Formula.MANDELBROT) distanceEstimation = false;
+        perturbation = new Perturbation(formula, maxIter, bailout, stats, this::stale);
+        flags.setReference(true);
+        flags.setApproximation(true);
+        clearCache();
+    }
 
+    public double getBailout() {
+        return bailout;
+    }
 
-        int iter = start;
-        int refIter = start;
-        while (iter < maxIter) {
-            FloatExpComplex Z = reference.get(refIter);
+    // 逃逸半径，已计算的像素失效；半径越大平滑迭代次数越准确，每个逃逸的像素多迭代约log2(log2(半径))次
+    public void setBailout(double bailout) {
+        if (bailout == this.bailout) return;
+        this.bailout = bailout;
+        perturbation = new Perturbation(formula, maxIter, bailout, stats, this::stale);
+        clearCache();
+    }
 
-            // 计算delta的影响
-            delta.mulMut(Z.mul(2).addMut(delta)).addMut(origin);
-            refIter++;
+    public Colouring getColouring() {
+        return colouring;
+    }
 
-            FloatExpComplex Z2 = reference.get(refIter);
-            FloatExpComplex val = Z2.add(delta);// 合并参考与delta
+    // 只改变迭代次数到颜色的映射，已计算的像素仍然有效，调用recolour即可重新着色
+    public void setColouring(Colouring colouring) {
+        this.colouring = colouring;
+    }
 
-            if (delta.getRe().scale() > -160 && delta.getIm().scale() > -160) {
-                return new Parcel<>(iter, delta);
-            }
-            FloatExp len = val.abs();
-            if (len.doubleValue() > 4) {
-                return new Parcel<>(iter, null);
-            }  // 逃逸检测
-            if (len.compareTo(delta.abs()) < 0 || refIter == reference.size() - 1) { // 检测是否需要变基
-                delta = val;
-                refIter = 0;
-            }
-            iter++;
-        }
-        return new Parcel<>(iter, null);
+    public boolean isDistanceEstimation() {
+        return distanceEstimation;
+    }
+
+    public void setDistanceEstimation(boolean distanceEstimation) {
+        if (formula != Formula.MANDELBROT) return;
+        if (distanceEstimation && !this.distanceEstimation) clearCache();
+        this.distanceEstimation = distanceEstimation;
+    }
+
+    public double[][] getDistance() {
+        return distance;
+    }
+
+    public int getAntiAliasing() {
+        return aaSamples;
+    }
+
+    public void setAntiAliasing(int samples) {
+        this.aaSamples = samples;
+        supersamples = null;
+    }
+
+    public int getAntiAliasingBudget() {
+        return aaBudget;
+    }
+
+    public void setAntiAliasingBudget(int budget) {
+        this.aaBudget = budget;
+        supersamples = null;
+    }
+
+    public int getAntiAliasingThreshold() {
+        return aaThreshold;
+    }
+
+    public void setAntiAliasingThreshold(int threshold) {
+        this.aaThreshold = threshold;
+        supersamples = null;
+    }
+
+    public OrbitCache getOrbitCache() {
+        return orbitCache;
+    }
+
+    public void setOrbitCache(OrbitCache orbitCache) {
+        this.orbitCache = orbitCache;
     }
 
     public boolean isMultiThreaded() {
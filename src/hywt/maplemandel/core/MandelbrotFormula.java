@@ -0,0 +1,57 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+// z^2 + c，内核与级数就是Perturbation和SeriesCoefficient中原有的实现
+final class MandelbrotFormula extends Formula {
+    @Override
+    public String getName() {
+        return "Mandelbrot";
+    }
+
+    // 与原先ReferenceOrbit中内联的计算相同，缓存中的轨道仍然有效
+    @Override
+    DeepComplex step(DeepComplex z, DeepComplex c, MathContext mc) {
+        BigDecimal re = z.getRe();
+        BigDecimal im = z.getIm();
+        BigDecimal x = re.multiply(re, mc).subtract(im.multiply(im, mc), mc).add(c.getRe(), mc);
+        BigDecimal y = re.multiply(im, mc).multiply(BigDecimal.valueOf(2), mc).add(c.getIm(), mc);
+        return new DeepComplex(x, y);
+    }
+
+    @Override
+    void stepDouble(double[] z, double cRe, double cIm) {
+        double re = z[0];
+        double im = z[1];
+        z[0] = re * re - im * im + cRe;
+        z[1] = 2 * re * im + cIm;
+    }
+
+    @Override
+    double getPTIter(Perturbation p, Complex delta, Complex origin, ReferenceOrbit reference,
+                     int start, int refStart, PixelStateBuffer states, int index) {
+        return p.getPTIter(delta, origin, reference, start, refStart, states, index);
+    }
+
+    @Override
+    Parcel<Integer, FloatExpComplex> getPTIterFloatExp(Perturbation p, FloatExpComplex delta, FloatExpComplex origin,
+                                                       ReferenceOrbit reference, int start, int refStart,
+                                                       PixelStateBuffer states, int index) {
+        return p.getPTIterFloatExp(delta, origin, reference, start, refStart, states, index);
+    }
+
+    @Override
+    void iterateSeries(SeriesCoefficient series, FloatExpComplex Z) {
+        series.iterate(Z);
+    }
+
+    @Override
+    FloatExpComplex perturb(FloatExpComplex delta, FloatExpComplex Z, FloatExpComplex dc) {
+        return delta.mul(Z).mul(2).addMut(delta.mul(delta)).addMut(dc);
+    }
+}
@@ -1,30 +1,56 @@
 package hywt.maplemandel.core;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MandelbrotStats {
     protected final int totalPixels;
-    protected final AtomicInteger guessed;
+    protected final LongAdder guessed;
     protected final AtomicInteger refIter;
     protected final AtomicInteger approx;
-    protected final AtomicInteger drawn;
+    protected final LongAdder drawn;
+    protected final LongAdder supersampled;
     protected final AtomicLong startTime;
 
+    // 热路径计数，LongAdder按线程分散写入
+    protected final LongAdder iterations;
+    protected final LongAdder rebases;
+    protected final LongAdder floatExpPixels;
+
+    private final Map<String, Long> stageNanos;
+    private final Map<String, LongAdder> threadBusyNanos;
+    private final Map<String, StatsSnapshot.Schedule> schedules;
+    private final Map<String, Long> guessedByStage;
+    private final AtomicLong startNanos;
+
     MandelbrotStats(int totalPixels) {
         this.totalPixels = totalPixels;
         this.refIter = new AtomicInteger();
-        this.guessed = new AtomicInteger();
-        drawn = new AtomicInteger();
+        this.guessed = new LongAdder();
+        drawn = new LongAdder();
         approx = new AtomicInteger();
+        supersampled = new LongAdder();
         startTime = new AtomicLong();
+        iterations = new LongAdder();
+        rebases = new LongAdder();
+        floatExpPixels = new LongAdder();
+        stageNanos = Collections.synchronizedMap(new LinkedHashMap<>());
+        threadBusyNanos = new ConcurrentHashMap<>();
+        schedules = Collections.synchronizedMap(new LinkedHashMap<>());
+        guessedByStage = Collections.synchronizedMap(new LinkedHashMap<>());
+        startNanos = new AtomicLong(System.nanoTime());
     }
 
     public int getTotalPixels() {
         return totalPixels;
     }
 
-    public AtomicInteger getGuessed() {
+    public LongAdder getGuessed() {
         return guessed;
     }
 
@@ -36,19 +62,95 @@ public class MandelbrotStats {
         return approx;
     }
 
-    public AtomicInteger getDrawn() {
+    public LongAdder getDrawn() {
         return drawn;
     }
 
+    public LongAdder getSupersampled() {
+        return supersampled;
+    }
+
+    public LongAdder getIterations() {
+        return iterations;
+    }
+
+    public LongAdder getRebases() {
+        return rebases;
+    }
+
+    public LongAdder getFloatExpPixels() {
+        return floatExpPixels;
+    }
+
     public AtomicLong getStartTime() {
         return startTime;
     }
 
+    protected void recordStage(String stage, long startNanos) {
+        stageNanos.merge(stage, System.nanoTime() - startNanos, Long::sum);
+    }
+
+    protected void recordBusy(String thread, long startNanos) {
+        threadBusyNanos.computeIfAbsent(thread, k -> new LongAdder()).add(System.nanoTime() - startNanos);
+    }
+
+    // 记录一层细化的预估代价与实际迭代次数，error为各方块误差绝对值之和
+    protected void recordSchedule(String stage, int tiles, long predicted, long actual, long error) {
+        schedules.put(stage, new StatsSnapshot.Schedule(tiles, predicted, actual, error));
+    }
+
+    // 记录一个阶段中猜测填充的像素数，验证中撤销的猜测记为负数
+    protected void recordGuessed(String stage, long pixels) {
+        guessedByStage.merge(stage, pixels, Long::sum);
+    }
+
+    public StatsSnapshot snapshot() {
+        Map<String, Long> stages;
+        synchronized (stageNanos) {
+            stages = new LinkedHashMap<>(stageNanos);
+        }
+        Map<String, Long> threads = new LinkedHashMap<>();
+        threadBusyNanos.forEach((k, v) -> threads.put(k, v.sum()));
+        Map<String, StatsSnapshot.Schedule> schedule;
+        synchronized (schedules) {
+            schedule = new LinkedHashMap<>(schedules);
+        }
+        Map<String, Long> guessedStages;
+        synchronized (guessedByStage) {
+            guessedStages = new LinkedHashMap<>(guessedByStage);
+        }
+        return new StatsSnapshot(
+                totalPixels,
+                drawn.sum(),
+                guessed.sum(),
+                supersampled.sum(),
+                refIter.get(),
+                approx.get(),
+                iterations.sum(),
+                rebases.sum(),
+                floatExpPixels.sum(),
+                System.nanoTime() - startNanos.get(),
+                stages,
+                threads,
+                schedule,
+                guessedStages
+        );
+    }
+
     protected void reset() {
         refIter.set(0);
-        guessed.set(0);
-        drawn.set(0);
+        guessed.reset();
+        drawn.reset();
         approx.set(0);
+        supersampled.reset();
+        iterations.reset();
+        rebases.reset();
+        floatExpPixels.reset();
+        stageNanos.clear();
+        threadBusyNanos.clear();
+        schedules.clear();
+        guessedByStage.clear();
         startTime.set(System.currentTimeMillis());
+        startNanos.set(System.nanoTime());
     }
 }
@@ -0,0 +1,100 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// 在视图内寻找极小集的核心(z_p(c) = 0)作为参考点，核心处的参考轨道是周期的，不会逃逸
+// 先用球形区域法从中心的轨道确定最近的周期：|z_n| < |dz_n/dc| * radius 时以c为中心、radius为半径的圆内有周期n的核心
+// 再以高精度的z与FloatExp的导数做牛顿迭代
+public class NucleusFinder {
+    private static final int MAX_NEWTON_STEPS = 64;
+    // 牛顿步长相对radius小于此值时停止，precision需要在radius以下再保留至少15位
+    private static final double NEWTON_TOLERANCE = 1e-10;
+
+    private final int precision;
+    private final MathContext mc;
+    private final BooleanSupplier cancelled;
+
+    public NucleusFinder(int precision, BooleanSupplier cancelled) {
+        this.precision = precision;
+        this.mc = new MathContext(precision);
+        this.cancelled = cancelled;
+    }
+
+    // 返回周期与核心，中心的轨道在maxIter内逃逸前找不到周期或牛顿迭代离开视图时返回null
+    public Parcel<Integer, DeepComplex> find(DeepComplex center, FloatExp radius, int maxIter) {
+        int period = findPeriod(center, radius, maxIter);
+        if (period <= 0) return null;
+        DeepComplex nucleus = newton(center, radius, period);
+        if (nucleus == null) return null;
+        return new Parcel<>(period, nucleus);
+    }
+
+    public int findPeriod(DeepComplex center, FloatExp radius, int maxIter) {
+        BigDecimal cRe = center.getRe();
+        BigDecimal cIm = center.getIm();
+        BigDecimal zRe = BigDecimal.ZERO;
+        BigDecimal zIm = BigDecimal.ZERO;
+        FloatExpComplex dz = new FloatExpComplex(0, 0);
+        FloatExpComplex one = new FloatExpComplex(1, 0);
+        FloatExpComplex two = new FloatExpComplex(2, 0);
+        FloatExp radius2 = radius.mul(radius);
+        for (int n = 1; n <= maxIter; n++) {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            FloatExpComplex z = new DeepComplex(zRe, zIm).toFloatExp();
+            dz = dz.mulMut(z).mulMut(two).addMut(one);
+
+            BigDecimal re = zRe.multiply(zRe, mc).subtract(zIm.multiply(zIm, mc), mc).add(cRe, mc);
+            zIm = zRe.multiply(zIm, mc).multiply(BigDecimal.valueOf(2), mc).add(cIm, mc);
+            zRe = re;
+
+            // abs()为模的平方
+            FloatExp abs2 = new DeepComplex(zRe, zIm).toFloatExp().abs();
+            if (abs2.doubleValue() > 4) return -1;
+            if (abs2.compareTo(dz.abs().mul(radius2)) < 0) return n;
+        }
+        return -1;
+    }
+
+    // c <- c - z_p(c) / z_p'(c)，步长小于radius的NEWTON_TOLERANCE倍时停止，离开以center为中心、2*radius的范围时放弃
+    DeepComplex newton(DeepComplex center, FloatExp radius, int period) {
+        BigDecimal cRe = center.getRe();
+        BigDecimal cIm = center.getIm();
+        FloatExp tolerance = radius.mul(NEWTON_TOLERANCE);
+        FloatExp tolerance2 = tolerance.mul(tolerance);
+        FloatExp limit = radius.mul(2);
+        FloatExpComplex one = new FloatExpComplex(1, 0);
+        FloatExpComplex two = new FloatExpComplex(2, 0);
+
+        for (int step = 0; step < MAX_NEWTON_STEPS; step++) {
+            BigDecimal zRe = BigDecimal.ZERO;
+            BigDecimal zIm = BigDecimal.ZERO;
+            FloatExpComplex dz = new FloatExpComplex(0, 0);
+            for (int n = 0; n < period; n++) {
+                if (cancelled.getAsBoolean()) throw new CancellationException();
+                FloatExpComplex z = new DeepComplex(zRe, zIm).toFloatExp();
+                dz = dz.mulMut(z).mulMut(two).addMut(one);
+                BigDecimal re = zRe.multiply(zRe, mc).subtract(zIm.multiply(zIm, mc), mc).add(cRe, mc);
+                zIm = zRe.multiply(zIm, mc).multiply(BigDecimal.valueOf(2), mc).add(cIm, mc);
+                zRe = re;
+            }
+
+            FloatExpComplex delta = new DeepComplex(zRe, zIm).toFloatExp().div(dz);
+            cRe = cRe.subtract(delta.getRe().toBigDecimal(), mc);
+            cIm = cIm.subtract(delta.getIm().toBigDecimal(), mc);
+
+            FloatExpComplex offset = new DeepComplex(cRe.subtract(center.getRe(), mc), cIm.subtract(center.getIm(), mc)).toFloatExp();
+            if (offset.getRe().abs().compareTo(limit) > 0 || offset.getIm().abs().compareTo(limit) > 0) return null;
+            if (delta.abs().compareTo(tolerance2) < 0) {
+                return new DeepComplex(cRe, cIm).setPrecision(precision);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,235 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// 参考轨道的磁盘缓存
+// 文件格式：头部(魔数、版本、点数、是否逃逸、最后一个z的高精度值) + 每个点24字节(实部底数、指数、虚部底数、指数)
+public class OrbitCache {
+    private static final int MAGIC = 0x4D4D4F52;
+    private static final int VERSION = 1;
+    private static final int RECORD_SIZE = 24;
+    private static final String SUFFIX = ".orbit";
+    // 写入时每次从轨道读出的点数
+    private static final int STORE_CHUNK = 4096;
+
+    private final Path dir;
+    private final long maxBytes;
+
+    public OrbitCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+    }
+
+    // 载入的轨道点直接写入ReferenceOrbit，这里只记录文件中的点数与末尾状态
+    public static class Entry {
+        public final int count;
+        public final DeepComplex last;
+        public final boolean escaped;
+
+        public Entry(int count, DeepComplex last, boolean escaped) {
+            this.count = count;
+            this.last = last;
+            this.escaped = escaped;
+        }
+    }
+
+    public static String key(DeepComplex center, int precision) {
+        return hash(center.getRe().toString() + "," + center.getIm().toString() + "," + precision);
+    }
+
+    // 非Mandelbrot公式的轨道，以公式的key区分
+    public static String key(String formula, DeepComplex center, int precision) {
+        return hash(formula + "," + center.getRe().toString() + "," + center.getIm().toString() + "," + precision);
+    }
+
+    private static String hash(String raw) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(raw.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // 把缓存的点直接从映射的文件追加到orbit，最多填满orbit的容量；没有缓存时返回null
+    public synchronized Entry load(String key, ReferenceOrbit orbit) throws IOException {
+        Path file = latest(key);
+        if (file == null) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                delete(file);
+                return null;
+            }
+            int count = buf.getInt();
+            boolean escaped = buf.get() != 0;
+            DeepComplex last = new DeepComplex(readDecimal(buf), readDecimal(buf));
+            if (buf.remaining() < (long) count * RECORD_SIZE) throw new BufferUnderflowException();
+
+            int n = Math.min(count, orbit.capacity() - orbit.size());
+            for (int i = 0; i < n; i++) {
+                double reBase = buf.getDouble();
+                int reExp = buf.getInt();
+                double imBase = buf.getDouble();
+                int imExp = buf.getInt();
+                orbit.add(new FloatExpComplex(new FloatExp(reBase, reExp), new FloatExp(imBase, imExp)));
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Entry(count, last, escaped);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // 文件损坏，丢弃
+            delete(file);
+            return null;
+        }
+    }
+
+    // 文件名带点数（<key>.<点数>.orbit），更长的轨道写入新文件而不是替换可能仍被映射的旧文件
+    // 映射在缓冲区被回收前一直有效，Windows上不能替换或删除这样的文件；旧文件删除失败时留给淘汰处理
+    // 轨道按块从orbit（包括压缩存储）读出后经缓冲流写入，不在堆上构造整个文件；超过缓存上限的轨道不写入
+    public synchronized void store(String key, ReferenceOrbit orbit, DeepComplex last, boolean escaped) throws IOException {
+        int count = orbit.size();
+        Path target = dir.resolve(key + "." + count + SUFFIX);
+        if (Files.exists(target)) return;
+
+        byte[] re = last.getRe().toString().getBytes(StandardCharsets.UTF_8);
+        byte[] im = last.getIm().toString().getBytes(StandardCharsets.UTF_8);
+        long header = 4 + 4 + 4 + 1 + 4 + re.length + 4 + im.length;
+        if (header + (long) count * RECORD_SIZE > maxBytes) return;
+
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeByte(escaped ? 1 : 0);
+            out.writeInt(re.length);
+            out.write(re);
+            out.writeInt(im.length);
+            out.write(im);
+            FloatExpComplex[] chunk = new FloatExpComplex[STORE_CHUNK];
+            for (int i = 0; i < count; ) {
+                int n = orbit.copy(i, chunk);
+                for (int j = 0; j < n; j++) {
+                    FloatExpComplex p = chunk[j];
+                    out.writeDouble(p.getRe().getBase());
+                    out.writeInt(p.getRe().getExp());
+                    out.writeDouble(p.getIm().getBase());
+                    out.writeInt(p.getIm().getExp());
+                }
+                i += n;
+            }
+        } catch (IOException e) {
+            delete(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        for (Path p : versions(key)) {
+            if (!p.equals(target)) delete(p);
+        }
+        evict();
+    }
+
+    // key的各个版本中点数最多的一个
+    private Path latest(String key) throws IOException {
+        Path best = null;
+        long bestCount = -1;
+        for (Path p : versions(key)) {
+            long count = count(p);
+            if (count > bestCount) {
+                best = p;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    private List<Path> versions(String key) throws IOException {
+        String prefix = key + ".";
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(SUFFIX) && count(p) >= 0;
+            }).collect(Collectors.toList());
+        }
+    }
+
+    // 文件名中的点数，不是这种格式时返回-1
+    private static long count(Path p) {
+        String name = p.getFileName().toString();
+        String middle = name.substring(name.indexOf('.') + 1, name.length() - SUFFIX.length());
+        try {
+            return Long.parseLong(middle);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // 仍被映射的文件在Windows上删除会失败，跳过
+    private static boolean delete(Path p) {
+        try {
+            Files.deleteIfExists(p);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // 按最后访问时间淘汰，直到总大小不超过上限
+    private void evict() throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toList());
+        }
+        long total = 0;
+        for (Path p : files) total += Files.size(p);
+        if (total <= maxBytes) return;
+
+        files.sort(Comparator.comparing(p -> {
+            try {
+                return Files.getLastModifiedTime(p);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (Path p : files) {
+            if (total <= maxBytes) break;
+            long size = Files.size(p);
+            if (delete(p)) total -= size;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new BigDecimal(new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,94 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+// 内核读取参考轨道的窗口，第i个点在re[i & mask]、im[i & mask]、deep[i & mask]
+// 未压缩的轨道直接给出ReferenceOrbit的数组，mask为-1，await与ReferenceOrbit.await相同；数组随发布的点扩大时被替换，await之后重新读取
+// 压缩的轨道每个线程一个环形缓冲区，向前读到窗口末尾时继续还原后面的点，变基回到起点时从头还原
+// 返回的上限与未压缩时的含义相同：只有到达轨道已发布的末尾时 refIter == available - 1
+final class OrbitWindow {
+    private static final int SIZE = 1 << 16;
+    // 每次向前还原的点数，与压缩的块大小相同
+    private static final int STEP = 1 << CompressedOrbit.BLOCK_BITS;
+    // 每个线程只保留最近使用的一个环形缓冲区，同一压缩轨道的不同视图（如prefix）共用
+    private static final ThreadLocal<OrbitWindow> CURRENT = new ThreadLocal<>();
+
+    double[] re;
+    double[] im;
+    FloatExpComplex[] deep;
+    final int mask;
+
+    private ReferenceOrbit orbit;
+    private final CompressedOrbit store;
+    private final CompressedOrbit.Reader reader;
+    // 窗口中的点为[lo, hi)，reader停在hi
+    private long lo;
+    private long hi;
+
+    // 未压缩轨道的视图
+    OrbitWindow(ReferenceOrbit orbit, double[] re, double[] im, FloatExpComplex[] deep) {
+        this.orbit = orbit;
+        this.re = re;
+        this.im = im;
+        this.deep = deep;
+        this.mask = -1;
+        this.store = null;
+        this.reader = null;
+    }
+
+    private OrbitWindow(CompressedOrbit store) {
+        this.re = new double[SIZE];
+        this.im = new double[SIZE];
+        this.mask = SIZE - 1;
+        this.store = store;
+        this.reader = store.reader();
+    }
+
+    static OrbitWindow of(ReferenceOrbit orbit, CompressedOrbit store) {
+        OrbitWindow window = CURRENT.get();
+        if (window == null || window.store != store) {
+            window = new OrbitWindow(store);
+            CURRENT.set(window);
+        }
+        window.orbit = orbit;
+        return window;
+    }
+
+    // 需要FloatExp的内核在await之前调用，压缩的轨道从这时起同时还原FloatExp
+    FloatExpComplex[] deep() {
+        if (deep == null) {
+            deep = new FloatExpComplex[SIZE];
+            reader.seek(0);
+            lo = hi = 0;
+        }
+        return deep;
+    }
+
+    // 等待第i个点，保证第i-1与第i个点（存在时）在窗口中，返回可以读取的上限
+    int await(int i) {
+        int available = orbit.await(i);
+        if (reader == null) return available;
+        if (i - 1 < lo || i >= hi) {
+            long from = Math.max(i - 1, 0);
+            if (from < lo || from > hi) {
+                reader.seek(from & -(long) STEP);
+                lo = hi = reader.position();
+            }
+            long end = Math.min(available, Math.max(i + 1, hi + STEP));
+            while (hi < end) {
+                reader.read(re, im, deep, (int) (hi & mask));
+                hi++;
+            }
+            lo = Math.max(lo, hi - SIZE);
+        }
+        return (int) Math.min(hi, available);
+    }
+
+    // 变基回到轨道起点后调用，返回新的上限
+    int rewind(int available) {
+        if (reader == null || lo == 0) return available;
+        reader.seek(0);
+        lo = hi = 0;
+        return await(1);
+    }
+}
@@ -42,6 +42,11 @@ public class Palette {
         return new double[]{r, g, b};
     }
 
+    // 按[0, 1]内的位置在整个调色板上取色，调色板只走一遍
+    public static Color getColorAt(double position) {
+        return getColor(position * (palette.length - 1) * 6);
+    }
+
     public static Color getColor(double it) {
         if (it == -1) {
             return Color.BLACK;
@@ -0,0 +1,520 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+// 微扰迭代内核与级数构建，不持有视图状态，可由多个视图共用同一条参考轨道
+// 本类中的getPTIter等内核是z^2+c的实现，其他公式的内核由Formula的子类提供
+class Perturbation {
+    // 迭代内核每隔这么多次迭代检查一次绘制是否已被取消
+    static final int CANCEL_CHECK_MASK = 0xFFF;
+    // 默认逃逸半径，较大的半径使平滑迭代次数的误差可以忽略，代价是每个逃逸的像素多迭代几次
+    static final double DEFAULT_BAILOUT = 256;
+    private static final double BELOW_ONE = Math.nextDown(1.0);
+
+    private final Formula formula;
+    private final int maxIter;
+    // 逃逸半径的平方
+    private final double bailout;
+    private final double logBailout;
+    private final double logDegree;
+    private final MandelbrotStats stats;
+    private final BooleanSupplier cancelled;
+
+    Perturbation(int maxIter, MandelbrotStats stats, BooleanSupplier cancelled) {
+        this(Formula.MANDELBROT, maxIter, DEFAULT_BAILOUT, stats, cancelled);
+    }
+
+    Perturbation(Formula formula, int maxIter, MandelbrotStats stats, BooleanSupplier cancelled) {
+        this(formula, maxIter, DEFAULT_BAILOUT, stats, cancelled);
+    }
+
+    // bailout为逃逸半径，|z|超过它时像素逃逸
+    Perturbation(Formula formula, int maxIter, double bailout, MandelbrotStats stats, BooleanSupplier cancelled) {
+        this.formula = formula;
+        this.maxIter = maxIter;
+        this.bailout = bailout * bailout;
+        this.logBailout = Math.log(this.bailout);
+        this.logDegree = Math.log(formula.degree());
+        this.stats = stats;
+        this.cancelled = cancelled;
+    }
+
+    int getMaxIter() {
+        return maxIter;
+    }
+
+    // 逃逸半径的平方，内核与|z|^2比较
+    double getBailout() {
+        return bailout;
+    }
+
+    // 第iter次迭代后|z|^2 = norm超过逃逸半径时的平滑迭代次数 iter + 1 - log_d(log|z| / log R)
+    // 上一步|z|不超过R，这一步不超过约R^d，小数部分在[0, 1)内，相邻整数之间连续
+    double smooth(int iter, double norm) {
+        double fraction = 1 - Math.log(Math.log(norm) / logBailout) / logDegree;
+        return iter + Math.max(0, Math.min(fraction, BELOW_ONE));
+    }
+
+    Formula getFormula() {
+        return formula;
+    }
+
+    boolean isCancelled() {
+        return cancelled.getAsBoolean();
+    }
+
+    // 返回迭代次数，逃逸的像素带有平滑的小数部分，取整即为整数的迭代次数
+    double iterate(FloatExpComplex c, ReferenceOrbit reference, SeriesCoefficient coefficient, boolean deep) {
+        return iterate(c, reference, coefficient, deep, null, 0);
+    }
+
+    // 与上面相同，states不为null时把达到maxIter的状态保存为第index个像素
+    // FloatExp内核中逃逸的像素（只在逃逸半径小于参考轨道的逃逸半径时出现）没有小数部分
+    double iterate(FloatExpComplex c, ReferenceOrbit reference, SeriesCoefficient coefficient, boolean deep,
+                   PixelStateBuffer states, int index) {
+        double iter;
+        if (coefficient.getIterationCount() > 2) {
+            FloatExpComplex approx = approximate(coefficient, c);
+            int start = coefficient.getIterationCount() + 1;
+            if (!deep) {
+                iter = formula.getPTIter(this, approx.toComplex(), c.toComplex(), reference, start, start, states, index);
+            } else {
+                if (approx.getRe().scale() < -160 || approx.getIm().scale() < -160) {
+                    Parcel<Integer, FloatExpComplex> result = formula.getPTIterFloatExp(this, approx, c, reference, start, start, states, index);
+                    iter = result.value == null ? result.key : formula.getPTIter(this, result.value.toComplex(), c.toComplex(), reference, result.key + 1, result.key + 1, states, index);
+                } else
+                    iter = formula.getPTIter(this, approx.toComplex(), c.toComplex(), reference, start, start, states, index);
+            }
+        } else {
+            iter = iterateFromStart(c, reference, deep, states, index);
+        }
+        return iter;
+    }
+
+    // 不使用级数，从第0次迭代开始
+    double iterateFromStart(FloatExpComplex c, ReferenceOrbit reference, boolean deep) {
+        return iterateFromStart(c, reference, deep, null, 0);
+    }
+
+    private double iterateFromStart(FloatExpComplex c, ReferenceOrbit reference, boolean deep, PixelStateBuffer states, int index) {
+        FloatExpComplex delta = formula.initialDelta(c);
+        if (!deep) {
+            return formula.getPTIter(this, delta.toComplex(), c.toComplex(), reference, 0, 0, states, index);
+        }
+        // delta会在内核中被原地修改，不能与c是同一个对象
+        Parcel<Integer, FloatExpComplex> result = formula.getPTIterFloatExp(this, delta, c, reference, 0, 0, states, index);
+        return result.value == null ? result.key : formula.getPTIter(this, result.value.toComplex(), c.toComplex(), reference, result.key + 1, result.key + 1, states, index);
+    }
+
+    // getPTIter的多像素版本，第i个像素从delta(i)、第start次迭代开始，结果写入out[i]，与逐像素计算相同
+    // states不为null时把达到maxIter的状态保存为第index[i]个像素
+    void iterateLanes(ReferenceOrbit reference, int start, double[] deltaRe, double[] deltaIm,
+                      double[] originRe, double[] originIm, int count, double[] out, PixelStateBuffer states, int[] index) {
+        LaneKernel kernel = LaneKernel.create();
+        stats.rebases.add(kernel.run(this, reference, start, deltaRe, deltaIm, originRe, originIm, count,
+                out, states, index, cancelled));
+    }
+
+    // 从states中保存的状态继续迭代到当前的maxIter
+    // 保存时停在轨道末尾而轨道没有延长（参考点已逃逸）时，先变基到轨道起点：delta <- Z_n + delta - Z_0
+    double resume(FloatExpComplex c, ReferenceOrbit reference, PixelStateBuffer states, int index) {
+        int start = states.getIter(index);
+        int refStart = states.getRefIter(index);
+        boolean rebase = refStart + 1 >= reference.await(refStart + 1);
+        if (!states.isDeep(index)) {
+            Complex delta = states.getDoubleDelta(index);
+            if (rebase) {
+                FloatExpComplex end = reference.getDeep(refStart);
+                FloatExpComplex first = reference.getDeep(0);
+                delta = new Complex(delta.getRe() + end.getRe().doubleValue() - first.getRe().doubleValue(),
+                        delta.getIm() + end.getIm().doubleValue() - first.getIm().doubleValue());
+                refStart = 0;
+            }
+            return formula.getPTIter(this, delta, c.toComplex(), reference, start, refStart, states, index);
+        }
+        FloatExpComplex delta = states.getDelta(index);
+        if (rebase) {
+            delta = reference.getDeep(refStart).add(delta).sub(reference.getDeep(0)).copy();
+            refStart = 0;
+        }
+        Parcel<Integer, FloatExpComplex> result = formula.getPTIterFloatExp(this, delta, c, reference, start, refStart, states, index);
+        return result.value == null ? result.key : formula.getPTIter(this, result.value.toComplex(), c.toComplex(), reference, result.key + 1, result.key + 1, states, index);
+    }
+
+    // 带导数的计算，导数以像素为单位缩放，避免深度缩放时溢出；返回平滑迭代次数与以像素为单位的距离估计
+    Parcel<Double, Double> calcDE(FloatExpComplex c, ReferenceOrbit reference, SeriesCoefficient coefficient, FloatExp pixelSize, boolean deep) {
+        if (coefficient.getIterationCount() > 2) {
+            FloatExpComplex approx = approximate(coefficient, c);
+            FloatExpComplex deriv = approximateDerivative(coefficient, c).mulMut(new FloatExpComplex(pixelSize, new FloatExp(0)));
+            if (!deep ||
+                    (approx.getRe().scale() >= -160 && approx.getIm().scale() >= -160)) {
+                int start = coefficient.getIterationCount() + 1;
+                return getPTIterDE(approx.toComplex(), deriv.toComplex(), c.toComplex(), reference, start, start, pixelSize.doubleValue());
+            }
+            return getPTIterFloatExpDE(approx, deriv, c, reference, coefficient.getIterationCount() + 1, pixelSize);
+        } else {
+            if (!deep) {
+                return getPTIterDE(new Complex(0, 0), new Complex(0, 0), c.toComplex(), reference, 0, 0, pixelSize.doubleValue());
+            }
+            return getPTIterFloatExpDE(new FloatExpComplex(0, 0), new FloatExpComplex(0, 0), c, reference, 0, pixelSize);
+        }
+    }
+
+    SeriesCoefficient getSeriesCoefficient(ReferenceOrbit reference, List<FloatExpComplex> validation) {
+        if (!formula.hasSeries()) return new SeriesCoefficient(4);
+        SeriesCoefficient coeff = formula.newSeries(6);
+        List<FloatExpComplex> iterV = new ArrayList<>(validation);
+        OrbitWindow window = reference.window();
+        window.deep();
+        int mask = window.mask;
+        try {
+            // 跳过的像素从第n+1个点开始，下一步还要读第n+2个点，轨道末尾的两个点不用于级数
+            for (int n = 0; n + 2 < window.await(n + 2); n++) {
+                if ((n & CANCEL_CHECK_MASK) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+                // 轨道数组随发布的点扩大，每次await之后重新读取
+                FloatExpComplex Z = window.deep[n & mask];
+
+                formula.iterateSeries(coeff, Z);
+
+                for (int i = 0; i < validation.size(); i++) {
+                    FloatExpComplex v = iterV.get(i);
+                    FloatExpComplex v2 = formula.perturb(v, Z, validation.get(i));
+                    FloatExpComplex approx = approximate(coeff, validation.get(i));
+                    double error = Math.abs((approx.getRe().div(v2.getRe()).abs().addMut(approx.getIm().div(v2.getIm()).abs()))
+                            .subMut(new FloatExp(2)).doubleValue());
+//                    if(i==0)System.out.println(v2+" "+ approx+" "+error);
+                    if (error > 1e-5 || Z.add(v2).abs().doubleValue() > 4 || Double.isNaN(error)) {
+                        coeff.undo();
+                        coeff.setIterationCount(n - 1);
+                        return coeff;
+                    }
+                    iterV.set(i, v2);
+                }
+                stats.approx.incrementAndGet();
+            }
+        } catch (ArithmeticException e) {
+
+        }
+        return new SeriesCoefficient(4);
+    }
+
+    static FloatExpComplex approximate(SeriesCoefficient coeff, FloatExpComplex c) {
+        FloatExpComplex result = new FloatExpComplex(0, 0);
+        FloatExpComplex cn = c.copy();
+        for (int i = 0; i < coeff.getTerms(); i++) {
+            result.addMut(coeff.getCoefficient(i).mul(cn));
+            cn = cn.mulMut(c);
+        }
+        return result;
+    }
+
+    // 级数对c的导数：sum((i+1) * A_i * c^i)
+    static FloatExpComplex approximateDerivative(SeriesCoefficient coeff, FloatExpComplex c) {
+        FloatExpComplex result = new FloatExpComplex(0, 0);
+        FloatExpComplex cn = new FloatExpComplex(1, 0);
+        for (int i = 0; i < coeff.getTerms(); i++) {
+            result.addMut(coeff.getCoefficient(i).mul(cn).mul(i + 1));
+            cn = cn.mulMut(c);
+        }
+        return result;
+    }
+
+    double getPTIter(Complex origin, ReferenceOrbit reference) {
+        return getPTIter(new Complex(0, 0), origin, reference, 0);
+    }
+
+    double getPTIter(Complex delta, Complex origin, ReferenceOrbit reference, int start) {
+        return getPTIter(delta, origin, reference, start, start, null, 0);
+    }
+
+    double getPTIter(Complex delta, Complex origin, ReferenceOrbit reference, int start, int refStart,
+                     PixelStateBuffer states, int index) {
+        double dRe = delta.getRe();
+        double dIm = delta.getIm();
+        double cRe = origin.getRe();
+        double cIm = origin.getIm();
+        OrbitWindow window = reference.window();
+        double[] refRe = window.re;
+        double[] refIm = window.im;
+        int mask = window.mask;
+        double tmp;
+
+        int iter = start;
+        double norm = 0;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        double forcedRe = 0;
+        double forcedIm = 0;
+        int available = window.await(refIter + 1);
+        refRe = window.re;
+        refIm = window.im;
+        while (iter < maxIter) {
+            if ((iter & CANCEL_CHECK_MASK) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+            double Zr = refRe[refIter & mask];
+            double Zi = refIm[refIter & mask];
+
+            // 计算delta的影响
+            tmp = (2 * Zr + dRe) * dRe - (2 * Zi + dIm) * dIm + cRe;
+            dIm = 2 * (Zr * dIm + Zi * dRe + dRe * dIm) + cIm;
+            dRe = tmp;
+            refIter++;
+
+            // 合并参考与delta
+            double valR = refRe[refIter & mask] + dRe;
+            double valI = refIm[refIter & mask] + dIm;
+            double val = valR * valR + valI * valI; // 逃逸检测
+
+            if (val > bailout) {
+                norm = val;
+                break;
+            }
+            // 超过已发布的位置时等待参考轨道
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                refRe = window.re;
+                refIm = window.im;
+            }
+            if (val < dRe * dRe + dIm * dIm || refIter == available - 1) { // 检测是否需要变基
+                // 记录第一次因轨道达到容量而强制变基前的状态，保存时从这里继续，轨道延长后不必变基
+                if (states != null && forcedIter < 0 && available == reference.capacity() && val >= dRe * dRe + dIm * dIm) {
+                    forcedIter = iter + 1;
+                    forcedRe = dRe;
+                    forcedIm = dIm;
+                    forcedRef = refIter;
+                }
+                dRe = valR;
+                dIm = valI;
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        finish(states, index, iter, rebases, dRe, dIm, refIter, forcedIter, forcedRe, forcedIm, forcedRef);
+        return iter < maxIter ? smooth(iter, norm) : iter;
+    }
+
+    // double内核结束时记录变基次数，达到maxIter时保存状态：有强制变基时保存其前的状态，否则保存当前状态
+    void finish(PixelStateBuffer states, int index, int iter, int rebases, double dRe, double dIm, int refIter,
+                int forcedIter, double forcedRe, double forcedIm, int forcedRef) {
+        stats.rebases.add(rebases);
+        if (states != null) {
+            if (iter < maxIter) states.remove(index);
+            else if (forcedIter >= 0) states.save(index, forcedRe, 0, forcedIm, 0, forcedRef, forcedIter, false);
+            else states.save(index, dRe, 0, dIm, 0, refIter, iter, false);
+        }
+    }
+
+    Parcel<Integer, FloatExpComplex> getPTIterFloatExp(FloatExpComplex delta, FloatExpComplex origin, ReferenceOrbit reference, int start) {
+        return getPTIterFloatExp(delta, origin, reference, start, start, null, 0);
+    }
+
+    Parcel<Integer, FloatExpComplex> getPTIterFloatExp(FloatExpComplex delta, FloatExpComplex origin, ReferenceOrbit reference,
+                                                       int start, int refStart, PixelStateBuffer states, int index) {
+        OrbitWindow window = reference.window();
+        FloatExpComplex[] ref = window.deep();
+        int mask = window.mask;
+
+        int iter = start;
+        int refIter = refStart;
+        int rebases = 0;
+        int forcedIter = -1;
+        int forcedRef = 0;
+        FloatExpComplex forcedDelta = null;
+        int available = window.await(refIter + 1);
+        ref = window.deep;
+        Parcel<Integer, FloatExpComplex> result = null;
+        while (iter < maxIter) {
+            if ((iter & CANCEL_CHECK_MASK) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+            FloatExpComplex Z = ref[refIter & mask];
+
+            // 计算delta的影响
+            delta.mulMut(Z.mul(2).addMut(delta)).addMut(origin);
+            refIter++;
+
+            FloatExpComplex Z2 = ref[refIter & mask];
+            FloatExpComplex val = Z2.add(delta);// 合并参考与delta
+
+            if (delta.getRe().scale() > -160 && delta.getIm().scale() > -160) {
+                result = new Parcel<>(iter, delta);
+                break;
+            }
+            FloatExp len = val.abs();
+            if (len.doubleValue() > bailout) {
+                break;
+            }  // 逃逸检测
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                ref = window.deep;
+            }
+            if (len.compareTo(delta.abs()) < 0 || refIter == available - 1) { // 检测是否需要变基
+                if (states != null && forcedIter < 0 && available == reference.capacity() && len.compareTo(delta.abs()) >= 0) {
+                    forcedIter = iter + 1;
+                    forcedDelta = delta.copy();
+                    forcedRef = refIter;
+                }
+                delta = val;
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        return finish(states, index, iter, rebases, result, delta, refIter, forcedIter, forcedDelta, forcedRef);
+    }
+
+    // FloatExp内核的结束处理，result不为null时表示交给double内核继续，不保存状态
+    Parcel<Integer, FloatExpComplex> finish(PixelStateBuffer states, int index, int iter, int rebases,
+                                            Parcel<Integer, FloatExpComplex> result, FloatExpComplex delta, int refIter,
+                                            int forcedIter, FloatExpComplex forcedDelta, int forcedRef) {
+        stats.rebases.add(rebases);
+        stats.floatExpPixels.increment();
+        if (result != null) return result;
+        if (states != null) {
+            if (iter < maxIter) {
+                states.remove(index);
+            } else if (forcedIter >= 0) {
+                states.save(index, forcedDelta.getRe().getBase(), forcedDelta.getRe().getExp(),
+                        forcedDelta.getIm().getBase(), forcedDelta.getIm().getExp(), forcedRef, forcedIter, true);
+            } else {
+                states.save(index, delta.getRe().getBase(), delta.getRe().getExp(),
+                        delta.getIm().getBase(), delta.getIm().getExp(), refIter, iter, true);
+            }
+        }
+        return new Parcel<>(iter, null);
+    }
+
+    private static double distanceEstimate(double zRe, double zIm, double dRe, double dIm) {
+        double z = Math.sqrt(zRe * zRe + zIm * zIm);
+        double dz = Math.sqrt(dRe * dRe + dIm * dIm);
+        return z * Math.log(z) / dz;
+    }
+
+    // 与getPTIter相同，但同时跟踪dz/dc（乘以像素尺寸），返回平滑迭代次数与以像素为单位的距离估计
+    // 逃逸判断与平滑迭代次数与getPTIter相同，使用设定的逃逸半径
+    Parcel<Double, Double> getPTIterDE(Complex delta, Complex deriv, Complex origin, ReferenceOrbit reference, int start, int refStart, double pixelSize) {
+        double dRe = delta.getRe();
+        double dIm = delta.getIm();
+        double drRe = deriv.getRe();
+        double drIm = deriv.getIm();
+        double cRe = origin.getRe();
+        double cIm = origin.getIm();
+        OrbitWindow window = reference.window();
+        double[] refRe = window.re;
+        double[] refIm = window.im;
+        int mask = window.mask;
+        double tmp;
+
+        int iter = start;
+        int refIter = refStart;
+        int rebases = 0;
+        int available = window.await(refIter + 1);
+        refRe = window.re;
+        refIm = window.im;
+        double de = 0;
+        double norm = 0;
+        while (iter < maxIter) {
+            if ((iter & CANCEL_CHECK_MASK) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+            double Zr = refRe[refIter & mask];
+            double Zi = refIm[refIter & mask];
+
+            // dz' = 2 * z * dz' + pixelSize
+            double zRe = Zr + dRe;
+            double zIm = Zi + dIm;
+            tmp = 2 * (zRe * drRe - zIm * drIm) + pixelSize;
+            drIm = 2 * (zRe * drIm + zIm * drRe);
+            drRe = tmp;
+
+            tmp = (2 * Zr + dRe) * dRe - (2 * Zi + dIm) * dIm + cRe;
+            dIm = 2 * (Zr * dIm + Zi * dRe + dRe * dIm) + cIm;
+            dRe = tmp;
+            refIter++;
+
+            double valR = refRe[refIter & mask] + dRe;
+            double valI = refIm[refIter & mask] + dIm;
+            double val = valR * valR + valI * valI;
+
+            if (val > bailout) {
+                norm = val;
+                de = distanceEstimate(valR, valI, drRe, drIm);
+                break;
+            }
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                refRe = window.re;
+                refIm = window.im;
+            }
+            if (val < dRe * dRe + dIm * dIm || refIter == available - 1) {
+                dRe = valR;
+                dIm = valI;
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        stats.rebases.add(rebases);
+        return new Parcel<>(iter < maxIter ? smooth(iter, norm) : iter, de);
+    }
+
+    Parcel<Double, Double> getPTIterFloatExpDE(FloatExpComplex delta, FloatExpComplex deriv, FloatExpComplex origin, ReferenceOrbit reference, int start, FloatExp pixelSize) {
+        FloatExpComplex pixel = new FloatExpComplex(pixelSize, new FloatExp(0));
+        OrbitWindow window = reference.window();
+        FloatExpComplex[] ref = window.deep();
+        int mask = window.mask;
+        stats.floatExpPixels.increment();
+
+        int iter = start;
+        int refIter = start;
+        int rebases = 0;
+        int available = window.await(refIter + 1);
+        ref = window.deep;
+        while (iter < maxIter) {
+            if ((iter & CANCEL_CHECK_MASK) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+            FloatExpComplex Z = ref[refIter & mask];
+
+            deriv = deriv.mulMut(Z.add(delta)).mulMut(new FloatExpComplex(2, 0)).addMut(pixel);
+            delta.mulMut(Z.mul(2).addMut(delta)).addMut(origin);
+            refIter++;
+
+            FloatExpComplex Z2 = ref[refIter & mask];
+            FloatExpComplex val = Z2.add(delta);
+
+            if (delta.getRe().scale() > -160 && delta.getIm().scale() > -160 && deriv.abs().scale() > -600) {
+                // delta与导数都已可用double表示，交给double版本继续
+                stats.rebases.add(rebases);
+                return getPTIterDE(delta.toComplex(), deriv.toComplex(), origin.toComplex(), reference, iter + 1, refIter, pixelSize.doubleValue());
+            }
+            FloatExp len = val.abs();
+            if (len.doubleValue() > bailout) {
+                double norm = len.doubleValue();
+                double zAbs = Math.sqrt(norm);
+                FloatExp de = new FloatExp(zAbs * Math.log(zAbs)).div(deriv.abs().sqrt());
+                stats.rebases.add(rebases);
+                return new Parcel<>(smooth(iter, norm), de.doubleValue());
+            }
+            if (refIter + 1 >= available) {
+                available = window.await(refIter + 1);
+                ref = window.deep;
+            }
+            if (len.compareTo(delta.abs()) < 0 || refIter == available - 1) {
+                delta = val.copy(); // val可能与参考轨道共享对象
+                refIter = 0;
+                available = window.rewind(available);
+                rebases++;
+            }
+            iter++;
+        }
+        stats.rebases.add(rebases);
+        return new Parcel<>((double) iter, 0d);
+    }
+}
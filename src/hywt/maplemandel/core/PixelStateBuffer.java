@@ -0,0 +1,139 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.Complex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.util.Arrays;
+
+// 达到maxIter的像素的迭代状态（delta、参考轨道位置、迭代次数），提高maxIter时从这里继续而不是从头计算
+// 每个像素只占slots中的4字节，状态按需追加到并列的基本类型数组
+class PixelStateBuffer {
+    private final int[] slots;
+    private int[] pixel;
+    private double[] reBase;
+    private int[] reExp;
+    private double[] imBase;
+    private int[] imExp;
+    private int[] refIter;
+    private int[] iter;
+    private boolean[] deep;
+    private int entries;
+    private int live;
+
+    PixelStateBuffer(int pixels) {
+        slots = new int[pixels];
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        pixel = new int[capacity];
+        reBase = new double[capacity];
+        reExp = new int[capacity];
+        imBase = new double[capacity];
+        imExp = new int[capacity];
+        refIter = new int[capacity];
+        iter = new int[capacity];
+        deep = new boolean[capacity];
+    }
+
+    // deep表示delta来自FloatExp内核，继续时仍需FloatExp内核
+    synchronized void save(int index, double re, int rExp, double im, int iExp, int ref, int it, boolean wide) {
+        int e = slots[index] - 1;
+        if (e < 0) {
+            if (entries == pixel.length) grow();
+            e = entries++;
+            slots[index] = e + 1;
+            pixel[e] = index;
+            live++;
+        }
+        reBase[e] = re;
+        reExp[e] = rExp;
+        imBase[e] = im;
+        imExp[e] = iExp;
+        refIter[e] = ref;
+        iter[e] = it;
+        deep[e] = wide;
+    }
+
+    void remove(int index) {
+        if (slots[index] == 0) return;
+        synchronized (this) {
+            int e = slots[index] - 1;
+            if (e < 0) return;
+            slots[index] = 0;
+            pixel[e] = -1;
+            live--;
+        }
+    }
+
+    private void grow() {
+        int n = pixel.length * 2;
+        pixel = Arrays.copyOf(pixel, n);
+        reBase = Arrays.copyOf(reBase, n);
+        reExp = Arrays.copyOf(reExp, n);
+        imBase = Arrays.copyOf(imBase, n);
+        imExp = Arrays.copyOf(imExp, n);
+        refIter = Arrays.copyOf(refIter, n);
+        iter = Arrays.copyOf(iter, n);
+        deep = Arrays.copyOf(deep, n);
+    }
+
+    boolean contains(int index) {
+        return slots[index] != 0;
+    }
+
+    synchronized boolean isDeep(int index) {
+        return deep[slots[index] - 1];
+    }
+
+    synchronized Complex getDoubleDelta(int index) {
+        int e = slots[index] - 1;
+        return new Complex(reBase[e], imBase[e]);
+    }
+
+    synchronized FloatExpComplex getDelta(int index) {
+        int e = slots[index] - 1;
+        return new FloatExpComplex(new FloatExp(reBase[e], reExp[e]), new FloatExp(imBase[e], imExp[e]));
+    }
+
+    synchronized int getRefIter(int index) {
+        return refIter[slots[index] - 1];
+    }
+
+    synchronized int getIter(int index) {
+        return iter[slots[index] - 1];
+    }
+
+    // 当前保存了状态的像素，顺带去掉已移除的条目
+    synchronized int[] pixels() {
+        int n = 0;
+        for (int e = 0; e < entries; e++) {
+            int p = pixel[e];
+            if (p < 0) continue;
+            pixel[n] = p;
+            reBase[n] = reBase[e];
+            reExp[n] = reExp[e];
+            imBase[n] = imBase[e];
+            imExp[n] = imExp[e];
+            refIter[n] = refIter[e];
+            iter[n] = iter[e];
+            deep[n] = deep[e];
+            slots[p] = n + 1;
+            n++;
+        }
+        entries = n;
+        return Arrays.copyOf(pixel, n);
+    }
+
+    synchronized int size() {
+        return live;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(slots, 0);
+        entries = 0;
+        live = 0;
+        if (pixel.length > 64) allocate(64);
+    }
+}
@@ -0,0 +1,116 @@
+package hywt.maplemandel.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// 流式PNG编码，逐行压缩并分块写出IDAT，不需要整幅图像在内存中
+public class PngImageSink implements ImageSink {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private DeflaterOutputStream idat;
+    private Deflater deflater;
+    private byte[] line;
+
+    public PngImageSink(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    @Override
+    public void begin(int width, int height) throws IOException {
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(width);
+        h.writeInt(height);
+        h.writeByte(8); // 位深
+        h.writeByte(2); // RGB
+        h.writeByte(0);
+        h.writeByte(0);
+        h.writeByte(0);
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        line = new byte[width * 3 + 1];
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        idat = new DeflaterOutputStream(new IdatStream(), deflater, CHUNK_SIZE);
+    }
+
+    // 使用Sub过滤，平滑的色带压缩效果更好
+    @Override
+    public void writeRow(int[] rgb) throws IOException {
+        line[0] = 1;
+        int prevR = 0, prevG = 0, prevB = 0;
+        for (int i = 0; i < rgb.length; i++) {
+            int r = rgb[i] >> 16 & 0xff;
+            int g = rgb[i] >> 8 & 0xff;
+            int b = rgb[i] & 0xff;
+            line[i * 3 + 1] = (byte) (r - prevR);
+            line[i * 3 + 2] = (byte) (g - prevG);
+            line[i * 3 + 3] = (byte) (b - prevB);
+            prevR = r;
+            prevG = g;
+            prevB = b;
+        }
+        idat.write(line);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        idat.close();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // 把压缩数据按CHUNK_SIZE分成多个IDAT块，关闭时不关闭底层流
+    private class IdatStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) flushChunk();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) writeChunk("IDAT", buffer, count);
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package hywt.maplemandel.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// 无文件头的RGB24原始像素，每像素3字节，逐行连续存放
+public class RawImageSink implements ImageSink {
+    private final OutputStream out;
+    private byte[] buffer;
+
+    public RawImageSink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void begin(int width, int height) {
+        buffer = new byte[width * 3];
+    }
+
+    @Override
+    public void writeRow(int[] rgb) throws IOException {
+        for (int i = 0; i < rgb.length; i++) {
+            buffer[i * 3] = (byte) (rgb[i] >> 16);
+            buffer[i * 3 + 1] = (byte) (rgb[i] >> 8);
+            buffer[i * 3 + 2] = (byte) rgb[i];
+        }
+        out.write(buffer);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+}
@@ -1,9 +1,10 @@
 package hywt.maplemandel.core;
 
+// 界面线程（cancel、修改视图）与绘制线程都会读写，字段为volatile
 public class RecalcFlags {
-    private boolean reference;
-    private boolean approximation;
-    private boolean pixels;
+    private volatile boolean reference;
+    private volatile boolean approximation;
+    private volatile boolean pixels;
 
     public RecalcFlags() {
         reset();
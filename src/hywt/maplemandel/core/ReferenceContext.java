@@ -0,0 +1,142 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+// 可被多个视图共享的参考轨道与级数，构建完成后不再修改
+// 级数用以参考中心为圆心、半边长为radius的正方形四角验证，落在其中的视图可以直接使用
+public final class ReferenceContext {
+    private final DeepComplex center;
+    private final FloatExp radius;
+    private final int maxIter;
+    private final ReferenceOrbit orbit;
+    private final SeriesCoefficient series;
+
+    ReferenceContext(DeepComplex center, FloatExp radius, int maxIter, ReferenceOrbit orbit, SeriesCoefficient series) {
+        this.center = center;
+        this.radius = radius;
+        this.maxIter = maxIter;
+        this.orbit = orbit;
+        this.series = series;
+    }
+
+    // 同步计算参考轨道与级数，精度比radius多20位，比radius小10个数量级以内的视图都可以共用
+    public static ReferenceContext compute(DeepComplex center, FloatExp radius, int maxIter) {
+        ReferenceOrbit orbit = new ReferenceOrbit(maxIter, Formula.MANDELBROT, center);
+        orbit.extend(center, new DeepComplex(0, 0), -radius.scale() + 20, null);
+        orbit.complete();
+
+        Perturbation perturbation = new Perturbation(maxIter, new MandelbrotStats(0), () -> false);
+        SeriesCoefficient series = perturbation.getSeriesCoefficient(orbit, corners(radius));
+        return new ReferenceContext(center, radius, maxIter, orbit, series);
+    }
+
+    // 序列化轨道与级数，供其他进程直接使用而不必重新计算高精度轨道
+    // 格式：中心(字符串)、radius、maxIter、点数、实部底数[]、实部指数[]、虚部底数[]、虚部指数[]、级数跳过的迭代数、项数、各项系数
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(center.getRe().toString());
+        out.writeUTF(center.getIm().toString());
+        writeFloatExp(out, radius);
+        out.writeInt(maxIter);
+
+        List<FloatExpComplex> points = orbit.toList();
+        int size = points.size();
+        out.writeInt(size);
+        for (FloatExpComplex z : points) out.writeDouble(z.getRe().getBase());
+        for (FloatExpComplex z : points) out.writeInt(z.getRe().getExp());
+        for (FloatExpComplex z : points) out.writeDouble(z.getIm().getBase());
+        for (FloatExpComplex z : points) out.writeInt(z.getIm().getExp());
+
+        out.writeInt(series.getIterationCount());
+        out.writeInt(series.getTerms());
+        for (int i = 0; i < series.getTerms(); i++) {
+            FloatExpComplex c = series.getCoefficient(i);
+            writeFloatExp(out, c.getRe());
+            writeFloatExp(out, c.getIm());
+        }
+    }
+
+    public static ReferenceContext read(DataInput in) throws IOException {
+        DeepComplex center = new DeepComplex(new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()));
+        FloatExp radius = readFloatExp(in);
+        int maxIter = in.readInt();
+
+        int size = in.readInt();
+        if (size < 0 || size > maxIter) throw new IOException("bad orbit size " + size);
+        double[] reBase = new double[size];
+        int[] reExp = new int[size];
+        double[] imBase = new double[size];
+        for (int i = 0; i < size; i++) reBase[i] = in.readDouble();
+        for (int i = 0; i < size; i++) reExp[i] = in.readInt();
+        for (int i = 0; i < size; i++) imBase[i] = in.readDouble();
+        ReferenceOrbit orbit = new ReferenceOrbit(maxIter, Formula.MANDELBROT, center);
+        for (int i = 0; i < size; i++) {
+            orbit.add(new FloatExpComplex(new FloatExp(reBase[i], reExp[i]), new FloatExp(imBase[i], in.readInt())));
+        }
+        orbit.complete();
+
+        int iterationCount = in.readInt();
+        int terms = in.readInt();
+        if (terms < 0) throw new IOException("bad series terms " + terms);
+        SeriesCoefficient series = new SeriesCoefficient(terms);
+        series.setIterationCount(iterationCount);
+        for (int i = 0; i < terms; i++) {
+            series.setCoefficient(i, new FloatExpComplex(readFloatExp(in), readFloatExp(in)));
+        }
+        return new ReferenceContext(center, radius, maxIter, orbit, series);
+    }
+
+    private static void writeFloatExp(DataOutput out, FloatExp value) throws IOException {
+        out.writeDouble(value.getBase());
+        out.writeInt(value.getExp());
+    }
+
+    private static FloatExp readFloatExp(DataInput in) throws IOException {
+        return new FloatExp(in.readDouble(), in.readInt());
+    }
+
+    // 以offset为中心、半宽halfWidth、半高halfHeight的视图是否在级数验证范围内
+    boolean covers(FloatExpComplex offset, FloatExp halfWidth, FloatExp halfHeight) {
+        return offset.getRe().abs().add(halfWidth).compareTo(radius) <= 0 &&
+                offset.getIm().abs().add(halfHeight).compareTo(radius) <= 0;
+    }
+
+    public DeepComplex getCenter() {
+        return center;
+    }
+
+    public FloatExp getRadius() {
+        return radius;
+    }
+
+    public int getMaxIter() {
+        return maxIter;
+    }
+
+    public ReferenceOrbit getOrbit() {
+        return orbit;
+    }
+
+    // 共享的级数，调用方不应修改
+    public SeriesCoefficient getSeries() {
+        return series;
+    }
+
+    private static List<FloatExpComplex> corners(FloatExp radius) {
+        FloatExp nr = new FloatExp(0).sub(radius);
+        return Arrays.asList(
+                new FloatExpComplex(nr, radius),
+                new FloatExpComplex(nr, nr),
+                new FloatExpComplex(radius, radius),
+                new FloatExpComplex(radius, nr)
+        );
+    }
+}
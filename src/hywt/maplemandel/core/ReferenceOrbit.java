@@ -0,0 +1,242 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 只追加的参考轨道，计算线程逐步发布，读取方超过已发布的位置时等待
+// 容量超过COMPRESS_THRESHOLD时改为压缩存储在堆外（CompressedOrbit），re、im、deep为null，内核通过window读取
+// 未压缩的数组从INITIAL_LENGTH起随发布的点加倍，不按容量预先分配；内核每次await之后重新读取数组
+public class ReferenceOrbit {
+    private static final int NOTIFY_INTERVAL = 256;
+    private static final FloatExp ESCAPE_RADIUS = new FloatExp(1000);
+    // 每个点在堆上约占100字节，超过这个容量的轨道压缩存储，-Dmaplemandel.orbit.compress=<点数>
+    static final int COMPRESS_THRESHOLD = Integer.getInteger("maplemandel.orbit.compress", 1 << 24);
+    private static final int INITIAL_LENGTH = 1 << 12;
+
+    double[] re;
+    double[] im;
+    FloatExpComplex[] deep;
+    private CompressedOrbit store;
+    private OrbitWindow view;
+    private int capacity;
+    // 压缩存储按公式与参考点预测下一个点
+    private final Formula formula;
+    private final DeepComplex c;
+    private volatile int size;
+    private volatile boolean complete;
+    private volatile boolean cancelled;
+
+    public ReferenceOrbit(int capacity) {
+        this(capacity, Formula.MANDELBROT, new DeepComplex(0, 0));
+    }
+
+    // formula与c只用于压缩存储时的预测，与实际计算轨道所用的不同时结果仍然正确，只是压缩率变差
+    ReferenceOrbit(int capacity, Formula formula, DeepComplex c) {
+        this.capacity = capacity;
+        this.formula = formula;
+        this.c = c;
+        if (capacity > COMPRESS_THRESHOLD) {
+            store = new CompressedOrbit(formula, c);
+        } else {
+            int length = Math.min(capacity, INITIAL_LENGTH);
+            re = new double[length];
+            im = new double[length];
+            deep = new FloatExpComplex[length];
+            view = new OrbitWindow(this, re, im, deep);
+        }
+    }
+
+    private ReferenceOrbit(ReferenceOrbit source, int size) {
+        re = source.re;
+        im = source.im;
+        deep = source.deep;
+        store = source.store;
+        capacity = source.capacity;
+        formula = source.formula;
+        c = source.c;
+        if (store == null) view = new OrbitWindow(this, re, im, deep);
+        this.size = size;
+        this.complete = true;
+    }
+
+    void add(FloatExpComplex z) {
+        int n = size;
+        if (store != null) {
+            store.add(z);
+        } else {
+            if (n == re.length) enlarge(n + 1);
+            deep[n] = z;
+            re[n] = z.getRe().doubleValue();
+            im[n] = z.getIm().doubleValue();
+        }
+        size = n + 1;
+        if (n % NOTIFY_INTERVAL == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    // 只由计算线程调用；新数组在写入size之前发布，读取方await之后读到的数组包含已发布的全部点
+    // 旧数组中已有的点不再改变，尚未重新读取数组的读取方继续读旧数组仍然正确
+    private void enlarge(int minLength) {
+        int length = (int) Math.min(capacity, Math.max(minLength, 2L * re.length));
+        double[] re = Arrays.copyOf(this.re, length);
+        double[] im = Arrays.copyOf(this.im, length);
+        FloatExpComplex[] deep = Arrays.copyOf(this.deep, length);
+        this.re = re;
+        this.im = im;
+        this.deep = deep;
+        view.re = re;
+        view.im = im;
+        view.deep = deep;
+    }
+
+    // 从z继续计算参考轨道直到填满或逃逸，返回下一个高精度z
+    // 每次迭代检查中断，取消后立即停止并标记轨道
+    DeepComplex extend(DeepComplex c, DeepComplex z, int precision, AtomicInteger counter) {
+        return extend(Formula.MANDELBROT, c, z, precision, counter);
+    }
+
+    DeepComplex extend(Formula formula, DeepComplex c, DeepComplex z, int precision, AtomicInteger counter) {
+        z.setPrecision(precision);
+        MathContext mc = new MathContext(precision);
+
+        for (int i = size(); i < capacity(); i++) {
+            if (Thread.currentThread().isInterrupted() || isCancelled()) {
+                cancel();
+                return z;
+            }
+            FloatExpComplex fl = z.toFloatExp();
+            if (fl.abs().compareTo(ESCAPE_RADIUS) > 0) break;
+            add(fl);
+
+            z = formula.step(z, c, mc).setPrecision(precision);
+            if (counter != null) counter.incrementAndGet();
+        }
+        return z;
+    }
+
+    // 容量更大、从本轨道末尾继续计算的新轨道，只能在本轨道已完成时调用
+    // 已有的点与本轨道共用：新轨道只写入本轨道size之后的位置，数组扩大时复制，本轨道及其prefix读到的内容不变
+    // 本轨道保持完成状态，已交出的视图（如ReferenceContext中的）不会被重新打开或随新轨道取消
+    // 新容量超过COMPRESS_THRESHOLD时把已有的点转入压缩存储
+    ReferenceOrbit grow(int capacity) {
+        ReferenceOrbit grown = new ReferenceOrbit(this, size);
+        if (capacity <= this.capacity) return grown;
+        grown.capacity = capacity;
+        grown.complete = false;
+        if (store == null && capacity > COMPRESS_THRESHOLD) {
+            grown.store = new CompressedOrbit(formula, c);
+            for (int i = 0; i < size; i++) grown.store.add(deep[i]);
+            grown.re = null;
+            grown.im = null;
+            grown.deep = null;
+            grown.view = null;
+        }
+        return grown;
+    }
+
+    synchronized void complete() {
+        complete = true;
+        notifyAll();
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    // 等待直到第i个点已发布或轨道已结束，返回当前已发布的点数
+    public int await(int i) {
+        int n = size;
+        if (i < n || complete) return n;
+        synchronized (this) {
+            while (i >= size && !complete) {
+                if (cancelled) throw new CancellationException();
+                try {
+                    wait(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+            }
+        }
+        return size;
+    }
+
+    public int awaitComplete() {
+        return await(Integer.MAX_VALUE - 1);
+    }
+
+    public FloatExpComplex getDeep(int i) {
+        await(i);
+        if (store == null) return deep[i];
+        FloatExpComplex[] out = new FloatExpComplex[1];
+        CompressedOrbit.Reader reader = store.reader();
+        reader.seek(i);
+        reader.read(null, null, out, 0);
+        return out[0];
+    }
+
+    // 内核读取用的窗口，压缩存储时每个线程各有一个
+    OrbitWindow window() {
+        return store == null ? view : OrbitWindow.of(this, store);
+    }
+
+    public boolean isCompressed() {
+        return store != null;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // 当前已发布部分的视图，视为已完成，读取方到达末尾时重新定基而不是等待
+    ReferenceOrbit prefix() {
+        return new ReferenceOrbit(this, size);
+    }
+
+    // 从第from个点起复制到out，返回复制的点数；按块顺序读取整条轨道时不必一次还原到堆上
+    int copy(int from, FloatExpComplex[] out) {
+        int n = Math.min(out.length, size - from);
+        if (n <= 0) return 0;
+        if (store == null) {
+            System.arraycopy(deep, from, out, 0, n);
+        } else {
+            CompressedOrbit.Reader reader = store.reader();
+            reader.seek(from);
+            for (int i = 0; i < n; i++) reader.read(null, null, out, i);
+        }
+        return n;
+    }
+
+    public List<FloatExpComplex> toList() {
+        if (store == null) return Arrays.asList(deep).subList(0, size);
+        int n = size;
+        FloatExpComplex[] points = new FloatExpComplex[n];
+        CompressedOrbit.Reader reader = store.reader();
+        reader.seek(0);
+        for (int i = 0; i < n; i++) reader.read(null, null, points, i);
+        return Arrays.asList(points);
+    }
+}
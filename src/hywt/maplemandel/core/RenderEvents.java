@@ -0,0 +1,222 @@
+package hywt.maplemandel.core;
+
+import jdk.jfr.*;
+
+// Java Flight Recorder事件，用 -XX:StartFlightRecording 或 jcmd JFR.start 录制，类别为MapleMandel
+// 未录制时begin/shouldCommit由JIT消除，事件对象不逃逸，不产生开销；计数器的起点只在事件启用时读取
+// 方块事件每TILE_SAMPLE个方块记录一个，避免每层细化产生上千个事件
+final class RenderEvents {
+    static final int TILE_SAMPLE = 16;
+
+    private RenderEvents() {
+    }
+
+    @Name("hywt.maplemandel.Reference")
+    @Label("Reference Orbit")
+    @Category({"MapleMandel", "Reference"})
+    @StackTrace(false)
+    static final class Reference extends Event {
+        @Label("Formula")
+        String formula;
+        @Label("Start Iteration")
+        int startIteration;
+        @Label("Orbit Length")
+        int orbitLength;
+        @Label("Capacity")
+        int capacity;
+        @Label("Precision")
+        @Description("有效数字位数")
+        int precision;
+        @Label("Cached")
+        boolean cached;
+        @Label("Compressed")
+        boolean compressed;
+
+        void end(Formula formula, ReferenceOrbit orbit, int startIteration, int precision, boolean cached) {
+            end();
+            if (!shouldCommit()) return;
+            this.formula = formula.getKey();
+            this.startIteration = startIteration;
+            this.orbitLength = orbit.size();
+            this.capacity = orbit.capacity();
+            this.precision = precision;
+            this.cached = cached;
+            this.compressed = orbit.isCompressed();
+            commit();
+        }
+    }
+
+    @Name("hywt.maplemandel.Series")
+    @Label("Series Approximation")
+    @Category({"MapleMandel", "Reference"})
+    @StackTrace(false)
+    static final class Series extends Event {
+        @Label("Terms")
+        int terms;
+        @Label("Skipped Iterations")
+        int skippedIterations;
+        @Label("Validation Points")
+        int validationPoints;
+        @Label("Precision")
+        @Description("视图尺度的十进制指数")
+        int precision;
+
+        void end(SeriesCoefficient series, int validationPoints, int precision) {
+            end();
+            if (!shouldCommit()) return;
+            this.terms = series.getTerms();
+            this.skippedIterations = series.getIterationCount();
+            this.validationPoints = validationPoints;
+            this.precision = precision;
+            commit();
+        }
+    }
+
+    // 细化、猜测、续算、抗锯齿等阶段，计数为阶段内的增量
+    @Name("hywt.maplemandel.Stage")
+    @Label("Render Stage")
+    @Category({"MapleMandel", "Render"})
+    @StackTrace(false)
+    static final class Stage extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Step")
+        @Description("网格间距，不按网格进行的阶段为0")
+        int step;
+        @Label("Pixels")
+        long pixels;
+        @Label("Guessed Pixels")
+        long guessed;
+        @Label("Iterations")
+        long iterations;
+        @Label("Max Iterations")
+        int maxIter;
+
+        private transient GlitchFix glitch;
+        private transient long pixels0;
+        private transient long guessed0;
+        private transient long iterations0;
+
+        static Stage begin(MandelbrotStats stats) {
+            Stage event = new Stage();
+            event.begin();
+            if (event.isEnabled()) {
+                event.pixels0 = stats.drawn.sum();
+                event.guessed0 = stats.guessed.sum();
+                event.iterations0 = stats.iterations.sum();
+            }
+            event.glitch = GlitchFix.begin(stats);
+            return event;
+        }
+
+        void end(String stage, int step, int maxIter, MandelbrotStats stats) {
+            end();
+            glitch.end(stage, stats);
+            if (!shouldCommit()) return;
+            this.stage = stage;
+            this.step = step;
+            this.maxIter = maxIter;
+            this.pixels = stats.drawn.sum() - pixels0;
+            this.guessed = stats.guessed.sum() - guessed0;
+            this.iterations = stats.iterations.sum() - iterations0;
+            commit();
+        }
+    }
+
+    // 本方案用重新定基代替glitch检测与修复，记录每个阶段中发生的重新定基与切换到FloatExp内核的像素
+    @Name("hywt.maplemandel.GlitchFix")
+    @Label("Glitch Fix")
+    @Category({"MapleMandel", "Render"})
+    @StackTrace(false)
+    static final class GlitchFix extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Rebases")
+        long rebases;
+        @Label("FloatExp Pixels")
+        long floatExpPixels;
+
+        private transient long rebases0;
+        private transient long floatExpPixels0;
+
+        static GlitchFix begin(MandelbrotStats stats) {
+            GlitchFix event = new GlitchFix();
+            event.begin();
+            if (event.isEnabled()) {
+                event.rebases0 = stats.rebases.sum();
+                event.floatExpPixels0 = stats.floatExpPixels.sum();
+            }
+            return event;
+        }
+
+        void end(String stage, MandelbrotStats stats) {
+            end();
+            if (!shouldCommit()) return;
+            this.rebases = stats.rebases.sum() - rebases0;
+            this.floatExpPixels = stats.floatExpPixels.sum() - floatExpPixels0;
+            if (rebases == 0 && floatExpPixels == 0) return;
+            this.stage = stage;
+            commit();
+        }
+    }
+
+    @Name("hywt.maplemandel.Tile")
+    @Label("Refinement Tile")
+    @Category({"MapleMandel", "Render"})
+    @StackTrace(false)
+    static final class Tile extends Event {
+        @Label("Step")
+        int step;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("Pixels")
+        int pixels;
+        @Label("Iterations")
+        long iterations;
+        @Label("Predicted Iterations")
+        long predicted;
+
+        void end(int step, int x, int y, int pixels, long iterations, long predicted) {
+            end();
+            if (!shouldCommit()) return;
+            this.step = step;
+            this.x = x;
+            this.y = y;
+            this.pixels = pixels;
+            this.iterations = iterations;
+            this.predicted = predicted;
+            commit();
+        }
+    }
+
+    @Name("hywt.maplemandel.Recolour")
+    @Label("Colouring")
+    @Category({"MapleMandel", "Render"})
+    @StackTrace(false)
+    static final class Recolour extends Event {
+        @Label("Mode")
+        String mode;
+        @Label("Pixels")
+        int pixels;
+        @Label("Escaped Pixels")
+        @Description("直方图统计的逃逸像素数，按迭代次数着色时为-1")
+        long escaped;
+        @Label("Min Iteration")
+        int minIter;
+        @Label("Max Iteration")
+        int maxIter;
+
+        void end(Colouring mode, int pixels, IterationHistogram histogram, int maxIter) {
+            end();
+            if (!shouldCommit()) return;
+            this.mode = mode.name();
+            this.pixels = pixels;
+            this.escaped = histogram == null ? -1 : histogram.getTotal();
+            this.minIter = histogram == null ? 0 : histogram.getMin();
+            this.maxIter = histogram == null ? maxIter : histogram.getMax();
+            commit();
+        }
+    }
+}
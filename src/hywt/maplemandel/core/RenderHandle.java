@@ -0,0 +1,64 @@
+package hywt.maplemandel.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// startDraw返回的句柄，用于取消、等待本次绘制以及查询进度
+public class RenderHandle {
+    private final Mandelbrot mandelbrot;
+    final int generation;
+    private final CountDownLatch done;
+    private volatile boolean completed;
+    private volatile RenderStage stage;
+    private volatile double progress;
+
+    RenderHandle(Mandelbrot mandelbrot, int generation) {
+        this.mandelbrot = mandelbrot;
+        this.generation = generation;
+        this.done = new CountDownLatch(1);
+    }
+
+    // 只取消本次绘制，已被新的绘制取代时不做任何事
+    public void cancel() {
+        mandelbrot.cancel(generation);
+    }
+
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public boolean isCancelled() {
+        return !completed && mandelbrot.getGeneration() != generation;
+    }
+
+    // 最近完成的阶段，尚未完成任何阶段时为null
+    public RenderStage getStage() {
+        return stage;
+    }
+
+    public double getProgress() {
+        return progress;
+    }
+
+    void update(RenderStage stage, double progress) {
+        this.stage = stage;
+        this.progress = progress;
+    }
+
+    void finish(boolean completed) {
+        this.completed = completed;
+        done.countDown();
+    }
+}
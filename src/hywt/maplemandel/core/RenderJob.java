@@ -0,0 +1,144 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// 基于共享参考轨道的单个视图，只保存相对参考中心的偏移、尺度与分辨率
+// 多个视图可以在同一个线程池中并行绘制
+public class RenderJob {
+    private final ReferenceContext context;
+    private final FloatExpComplex offset;
+    private final FloatExp scale;
+    private final int width;
+    private final int height;
+    private final double baseStep;
+    private final int[][] iterations;
+    private final float[][] fractions;
+    private final MandelbrotStats stats;
+    private final Perturbation perturbation;
+    private final boolean deep;
+    private volatile boolean cancelled;
+    private SeriesCoefficient series;
+
+    public RenderJob(ReferenceContext context, FloatExpComplex offset, FloatExp scale, int width, int height) {
+        this.context = context;
+        this.offset = offset;
+        this.scale = scale;
+        this.width = width;
+        this.height = height;
+        this.baseStep = 1d / Math.min(width, height);
+        this.iterations = new int[width][height];
+        this.fractions = new float[width][height];
+        this.stats = new MandelbrotStats(width * height);
+        this.perturbation = new Perturbation(context.getMaxIter(), stats, () -> cancelled);
+        // 像素相对参考点的偏移小于double的表示范围时改用FloatExp内核；偏移取分量绝对值的最大值，FloatExpComplex.abs为模的平方
+        FloatExp re = offset.getRe().abs();
+        FloatExp im = offset.getIm().abs();
+        this.deep = (re.compareTo(im) > 0 ? re : im).add(scale).compareTo(new FloatExp(1, -320)) <= 0;
+    }
+
+    public static RenderJob at(ReferenceContext context, DeepComplex center, FloatExp scale, int width, int height) {
+        return new RenderJob(context, center.sub(context.getCenter()).toFloatExp(), scale, width, height);
+    }
+
+    // 相对参考中心的偏移
+    public FloatExpComplex getDeepDelta(double x, double y) {
+        double deltaX = (x - width / 2.0) * baseStep;
+        double deltaY = (height / 2.0 - y) * baseStep;
+        return new FloatExpComplex(scale.mul(deltaX), scale.mul(deltaY)).add(offset).copy();
+    }
+
+    // 按行提交到线程池，所有行完成时返回自身，迭代次数与平滑着色用的小数部分分别由getIterations、getFractions取得，draw可以为null
+    public CompletableFuture<RenderJob> submit(Executor pool, DrawCall draw) {
+        stats.reset();
+        return CompletableFuture.runAsync(this::prepareSeries, pool).thenCompose(v -> {
+            CompletableFuture<?>[] rows = new CompletableFuture<?>[height];
+            for (int y = 0; y < height; y++) {
+                int finalY = y;
+                rows[y] = CompletableFuture.runAsync(() -> renderRow(finalY, draw), pool);
+            }
+            return CompletableFuture.allOf(rows);
+        }).thenApply(v -> this);
+    }
+
+    // 视图在共享级数的验证范围内时直接使用，否则用视图四角重新验证
+    private void prepareSeries() {
+        FloatExp halfWidth = scale.mul(baseStep * width / 2);
+        FloatExp halfHeight = scale.mul(baseStep * height / 2);
+        if (context.covers(offset, halfWidth, halfHeight)) {
+            series = context.getSeries();
+            stats.approx.set(Math.max(0, series.getIterationCount()));
+        } else {
+            series = perturbation.getSeriesCoefficient(context.getOrbit(), Arrays.asList(
+                    getDeepDelta(0, 0),
+                    getDeepDelta(0, height - 1),
+                    getDeepDelta(width - 1, 0),
+                    getDeepDelta(width - 1, height - 1)
+            ));
+        }
+        stats.refIter.set(context.getOrbit().size());
+    }
+
+    private void renderRow(int y, DrawCall draw) {
+        int maxIter = context.getMaxIter();
+        int skip = series.getIterationCount() > 2 ? series.getIterationCount() + 1 : 0;
+        for (int x = 0; x < width; x++) {
+            if (cancelled) throw new CancellationException();
+            double smooth = perturbation.iterate(getDeepDelta(x, y), context.getOrbit(), series, deep);
+            int iter = (int) smooth;
+            iterations[x][y] = iter;
+            fractions[x][y] = (float) (smooth - iter);
+            stats.iterations.add(iter - skip);
+            stats.drawn.increment();
+            if (draw != null) draw.draw(x, y, (iter >= maxIter) ? Color.BLACK : Palette.getColor(smooth));
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int[][] getIterations() {
+        return iterations;
+    }
+
+    public float[][] getFractions() {
+        return fractions;
+    }
+
+    // 与Mandelbrot相同的着色：达到最大迭代次数为黑色，其余按迭代次数加小数部分取色
+    public Color getColor(int x, int y) {
+        int iter = iterations[x][y];
+        return (iter >= context.getMaxIter()) ? Color.BLACK : Palette.getColor(iter + fractions[x][y]);
+    }
+
+    public MandelbrotStats getStats() {
+        return stats;
+    }
+
+    public FloatExpComplex getOffset() {
+        return offset;
+    }
+
+    public FloatExp getScale() {
+        return scale;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
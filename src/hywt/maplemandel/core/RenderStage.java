@@ -0,0 +1,12 @@
+package hywt.maplemandel.core;
+
+// 绘制过程中的各个阶段，DrawCall.progress回调以此区分
+public enum RenderStage {
+    PREVIEW,
+    COARSE,
+    REFINEMENT,
+    GUESSING,
+    RECOLOUR,
+    ANTI_ALIASING,
+    COMPLETE
+}
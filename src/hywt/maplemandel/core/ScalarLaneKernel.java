@@ -0,0 +1,74 @@
+package hywt.maplemandel.core;
+
+// 没有向量模块时使用的4通道实现，手工展开为局部变量，四条互不依赖的计算链交给CPU并行执行
+class ScalarLaneKernel extends LaneKernel {
+    ScalarLaneKernel() {
+        super(4);
+    }
+
+    @Override
+    int advance(double[] refRe, double[] refIm, int steps) {
+        double d0r = dRe[0], d0i = dIm[0], c0r = cRe[0], c0i = cIm[0];
+        double d1r = dRe[1], d1i = dIm[1], c1r = cRe[1], c1i = cIm[1];
+        double d2r = dRe[2], d2i = dIm[2], c2r = cRe[2], c2i = cIm[2];
+        double d3r = dRe[3], d3i = dIm[3], c3r = cRe[3], c3i = cIm[3];
+        int r0 = ref[0], r1 = ref[1], r2 = ref[2], r3 = ref[3];
+        double v0r, v0i, v1r, v1i, v2r, v2i, v3r, v3i;
+        double tmp, Zr, Zi;
+        double bailout = this.bailout;
+
+        int k = 0;
+        while (true) {
+            Zr = refRe[r0 + k];
+            Zi = refIm[r0 + k];
+            tmp = (2 * Zr + d0r) * d0r - (2 * Zi + d0i) * d0i + c0r;
+            d0i = 2 * (Zr * d0i + Zi * d0r + d0r * d0i) + c0i;
+            d0r = tmp;
+
+            Zr = refRe[r1 + k];
+            Zi = refIm[r1 + k];
+            tmp = (2 * Zr + d1r) * d1r - (2 * Zi + d1i) * d1i + c1r;
+            d1i = 2 * (Zr * d1i + Zi * d1r + d1r * d1i) + c1i;
+            d1r = tmp;
+
+            Zr = refRe[r2 + k];
+            Zi = refIm[r2 + k];
+            tmp = (2 * Zr + d2r) * d2r - (2 * Zi + d2i) * d2i + c2r;
+            d2i = 2 * (Zr * d2i + Zi * d2r + d2r * d2i) + c2i;
+            d2r = tmp;
+
+            Zr = refRe[r3 + k];
+            Zi = refIm[r3 + k];
+            tmp = (2 * Zr + d3r) * d3r - (2 * Zi + d3i) * d3i + c3r;
+            d3i = 2 * (Zr * d3i + Zi * d3r + d3r * d3i) + c3i;
+            d3r = tmp;
+            k++;
+
+            v0r = refRe[r0 + k] + d0r;
+            v0i = refIm[r0 + k] + d0i;
+            v1r = refRe[r1 + k] + d1r;
+            v1i = refIm[r1 + k] + d1i;
+            v2r = refRe[r2 + k] + d2r;
+            v2i = refIm[r2 + k] + d2i;
+            v3r = refRe[r3 + k] + d3r;
+            v3i = refIm[r3 + k] + d3i;
+            double val0 = v0r * v0r + v0i * v0i;
+            double val1 = v1r * v1r + v1i * v1i;
+            double val2 = v2r * v2r + v2i * v2i;
+            double val3 = v3r * v3r + v3i * v3i;
+
+            // 逃逸或需要变基时停下，交给LaneKernel逐通道处理
+            if (val0 > bailout || val0 < d0r * d0r + d0i * d0i ||
+                    val1 > bailout || val1 < d1r * d1r + d1i * d1i ||
+                    val2 > bailout || val2 < d2r * d2r + d2i * d2i ||
+                    val3 > bailout || val3 < d3r * d3r + d3i * d3i ||
+                    k == steps) break;
+        }
+
+        dRe[0] = d0r; dIm[0] = d0i; valRe[0] = v0r; valIm[0] = v0i;
+        dRe[1] = d1r; dIm[1] = d1i; valRe[1] = v1r; valIm[1] = v1i;
+        dRe[2] = d2r; dIm[2] = d2i; valRe[2] = v2r; valIm[2] = v2i;
+        dRe[3] = d3r; dIm[3] = d3i; valRe[3] = v3r; valIm[3] = v3i;
+        return k;
+    }
+}
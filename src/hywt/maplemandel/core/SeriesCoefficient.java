@@ -66,9 +66,13 @@ public class SeriesCoefficient {
             }
             newCoeff[i] = c;
         }
+        update(newCoeff);
+    }
 
+    // 换成下一次迭代的系数，保留上一组以便undo
+    void update(FloatExpComplex[] next) {
         lastCoeff = coefficients;
-        coefficients = List.of(newCoeff);
+        coefficients = List.of(next);
         iterationCount++;
     }
 
@@ -83,5 +87,15 @@ public class SeriesCoefficient {
     public void undo() {
         coefficients = lastCoeff;
     }
+
+    // 独立的副本，交给ReferenceContext等共享的对象时使用
+    public SeriesCoefficient copy() {
+        SeriesCoefficient copy = new SeriesCoefficient(0);
+        List<FloatExpComplex> terms = new ArrayList<>(coefficients.size());
+        for (FloatExpComplex c : coefficients) terms.add(c.copy());
+        copy.coefficients = terms;
+        copy.iterationCount = iterationCount;
+        return copy;
+    }
 }
 
@@ -0,0 +1,150 @@
+package hywt.maplemandel.core;
+
+import java.util.Collections;
+import java.util.Map;
+
+public final class StatsSnapshot {
+    public final int totalPixels;
+    public final long drawn;
+    public final long guessed;
+    public final long supersampled;
+    public final int refIter;
+    public final int approx;
+    public final long iterations;
+    public final long rebases;
+    public final long floatExpPixels;
+    public final long elapsedNanos;
+    public final Map<String, Long> stageNanos;
+    public final Map<String, Long> threadBusyNanos;
+    public final Map<String, Schedule> schedule;
+    // 每个阶段猜测填充的像素数，减去该阶段的验证中重新计算的更粗一层的猜测像素
+    public final Map<String, Long> guessedByStage;
+
+    // 一层细化的调度情况：方块数、按上一层预估的迭代次数、实际迭代次数、各方块误差绝对值之和
+    public static final class Schedule {
+        public final int tiles;
+        public final long predicted;
+        public final long actual;
+        public final long error;
+
+        Schedule(int tiles, long predicted, long actual, long error) {
+            this.tiles = tiles;
+            this.predicted = predicted;
+            this.actual = actual;
+            this.error = error;
+        }
+
+        // 误差占实际迭代次数的比例
+        public double getRelativeError() {
+            return actual == 0 ? 0 : (double) error / actual;
+        }
+    }
+
+    StatsSnapshot(int totalPixels, long drawn, long guessed, long supersampled, int refIter, int approx,
+                  long iterations, long rebases, long floatExpPixels, long elapsedNanos,
+                  Map<String, Long> stageNanos, Map<String, Long> threadBusyNanos, Map<String, Schedule> schedule,
+                  Map<String, Long> guessedByStage) {
+        this.totalPixels = totalPixels;
+        this.drawn = drawn;
+        this.guessed = guessed;
+        this.supersampled = supersampled;
+        this.refIter = refIter;
+        this.approx = approx;
+        this.iterations = iterations;
+        this.rebases = rebases;
+        this.floatExpPixels = floatExpPixels;
+        this.elapsedNanos = elapsedNanos;
+        this.stageNanos = Collections.unmodifiableMap(stageNanos);
+        this.threadBusyNanos = Collections.unmodifiableMap(threadBusyNanos);
+        this.schedule = Collections.unmodifiableMap(schedule);
+        this.guessedByStage = Collections.unmodifiableMap(guessedByStage);
+    }
+
+    // 线程忙碌时间占本帧耗时的比例
+    public double getUtilisation(String thread) {
+        Long busy = threadBusyNanos.get(thread);
+        if (busy == null || elapsedNanos == 0) return 0;
+        return (double) busy / elapsedNanos;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"totalPixels\":").append(totalPixels)
+                .append(",\"drawn\":").append(drawn)
+                .append(",\"guessed\":").append(guessed)
+                .append(",\"supersampled\":").append(supersampled)
+                .append(",\"refIter\":").append(refIter)
+                .append(",\"approx\":").append(approx)
+                .append(",\"iterations\":").append(iterations)
+                .append(",\"rebases\":").append(rebases)
+                .append(",\"floatExpPixels\":").append(floatExpPixels)
+                .append(",\"elapsedNanos\":").append(elapsedNanos);
+        sb.append(",\"stages\":{");
+        appendJsonMap(sb, stageNanos);
+        sb.append("},\"threads\":{");
+        appendJsonMap(sb, threadBusyNanos);
+        sb.append("},\"schedule\":{");
+        boolean first = true;
+        for (Map.Entry<String, Schedule> e : schedule.entrySet()) {
+            if (!first) sb.append(',');
+            Schedule v = e.getValue();
+            sb.append('"').append(e.getKey()).append("\":{\"tiles\":").append(v.tiles)
+                    .append(",\"predicted\":").append(v.predicted)
+                    .append(",\"actual\":").append(v.actual)
+                    .append(",\"error\":").append(v.error).append('}');
+            first = false;
+        }
+        sb.append("},\"guessedByStage\":{");
+        appendJsonMap(sb, guessedByStage);
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        appendMetric(sb, "maplemandel_pixels_total", "gauge", totalPixels);
+        appendMetric(sb, "maplemandel_pixels_drawn", "gauge", drawn);
+        appendMetric(sb, "maplemandel_pixels_guessed", "gauge", guessed);
+        appendMetric(sb, "maplemandel_supersamples", "gauge", supersampled);
+        appendMetric(sb, "maplemandel_reference_iterations", "gauge", refIter);
+        appendMetric(sb, "maplemandel_series_skip", "gauge", approx);
+        appendMetric(sb, "maplemandel_iterations", "gauge", iterations);
+        appendMetric(sb, "maplemandel_rebases", "gauge", rebases);
+        appendMetric(sb, "maplemandel_floatexp_pixels", "gauge", floatExpPixels);
+        appendMetric(sb, "maplemandel_frame_seconds", "gauge", elapsedNanos / 1e9);
+
+        sb.append("# TYPE maplemandel_stage_seconds gauge\n");
+        stageNanos.forEach((k, v) -> sb.append("maplemandel_stage_seconds{stage=\"").append(k).append("\"} ")
+                .append(v / 1e9).append('\n'));
+        sb.append("# TYPE maplemandel_thread_busy_seconds gauge\n");
+        threadBusyNanos.forEach((k, v) -> sb.append("maplemandel_thread_busy_seconds{thread=\"").append(k).append("\"} ")
+                .append(v / 1e9).append('\n'));
+        sb.append("# TYPE maplemandel_schedule_predicted_iterations gauge\n");
+        schedule.forEach((k, v) -> sb.append("maplemandel_schedule_predicted_iterations{stage=\"").append(k).append("\"} ")
+                .append(v.predicted).append('\n'));
+        sb.append("# TYPE maplemandel_schedule_actual_iterations gauge\n");
+        schedule.forEach((k, v) -> sb.append("maplemandel_schedule_actual_iterations{stage=\"").append(k).append("\"} ")
+                .append(v.actual).append('\n'));
+        sb.append("# TYPE maplemandel_schedule_relative_error gauge\n");
+        schedule.forEach((k, v) -> sb.append("maplemandel_schedule_relative_error{stage=\"").append(k).append("\"} ")
+                .append(v.getRelativeError()).append('\n'));
+        sb.append("# TYPE maplemandel_stage_guessed_pixels gauge\n");
+        guessedByStage.forEach((k, v) -> sb.append("maplemandel_stage_guessed_pixels{stage=\"").append(k).append("\"} ")
+                .append(v).append('\n'));
+        return sb.toString();
+    }
+
+    private static void appendMetric(StringBuilder sb, String name, String type, Object value) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendJsonMap(StringBuilder sb, Map<String, Long> map) {
+        boolean first = true;
+        for (Map.Entry<String, Long> e : map.entrySet()) {
+            if (!first) sb.append(',');
+            sb.append('"').append(e.getKey()).append("\":").append(e.getValue());
+            first = false;
+        }
+    }
+}
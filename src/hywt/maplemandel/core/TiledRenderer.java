@@ -0,0 +1,121 @@
+package hywt.maplemandel.core;
+
+import hywt.maplemandel.core.numtype.DeepComplex;
+import hywt.maplemandel.core.numtype.FloatExp;
+import hywt.maplemandel.core.numtype.FloatExpComplex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 分块绘制超大图像，所有块共用一条参考轨道与级数
+// 按tileSize高的行带逐条着色写出，绘制下一条行带时写出当前行带
+// 内存只与块大小和图像宽度有关，与图像高度无关
+public class TiledRenderer {
+    private final ReferenceContext context;
+    private final FloatExpComplex offset;
+    private final FloatExp pixelSize;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final List<RenderJob> jobs;
+    private final AtomicInteger rowsWritten;
+    private volatile boolean cancelled;
+
+    // scale与Mandelbrot相同，对应图像短边的跨度
+    public TiledRenderer(ReferenceContext context, FloatExpComplex offset, FloatExp scale, int width, int height, int tileSize) {
+        this.context = context;
+        this.offset = offset;
+        this.pixelSize = scale.div(Math.min(width, height));
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.jobs = new CopyOnWriteArrayList<>();
+        this.rowsWritten = new AtomicInteger();
+    }
+
+    // 以center为参考计算轨道，级数的验证范围覆盖整幅图像
+    public static TiledRenderer compute(DeepComplex center, FloatExp scale, int maxIter, int width, int height, int tileSize) {
+        FloatExp radius = scale.mul(Math.max(width, height) / (2.0 * Math.min(width, height)));
+        ReferenceContext context = ReferenceContext.compute(center, radius, maxIter);
+        return new TiledRenderer(context, new FloatExpComplex(0, 0), scale, width, height, tileSize);
+    }
+
+    public void render(Executor pool, ImageSink sink) throws IOException {
+        sink.begin(width, height);
+        List<CompletableFuture<RenderJob>> band = submitBand(0, pool);
+        for (int y = 0; y < height; y += tileSize) {
+            List<CompletableFuture<RenderJob>> next = y + tileSize < height ? submitBand(y + tileSize, pool) : null;
+            writeBand(y, band, sink);
+            band = next;
+        }
+        sink.finish();
+    }
+
+    private List<CompletableFuture<RenderJob>> submitBand(int y, Executor pool) {
+        if (cancelled) throw new CancellationException();
+        int h = Math.min(tileSize, height - y);
+        List<CompletableFuture<RenderJob>> band = new ArrayList<>();
+        for (int x = 0; x < width; x += tileSize) {
+            int w = Math.min(tileSize, width - x);
+            // 块中心相对参考中心的偏移
+            FloatExpComplex center = new FloatExpComplex(
+                    pixelSize.mul(x + w / 2.0 - width / 2.0),
+                    pixelSize.mul(height / 2.0 - (y + h / 2.0))
+            ).add(offset).copy();
+            RenderJob job = new RenderJob(context, center, pixelSize.mul(Math.min(w, h)), w, h);
+            jobs.add(job);
+            band.add(job.submit(pool, null));
+        }
+        return band;
+    }
+
+    private void writeBand(int y, List<CompletableFuture<RenderJob>> band, ImageSink sink) throws IOException {
+        int h = Math.min(tileSize, height - y);
+        List<RenderJob> tiles = new ArrayList<>();
+        for (CompletableFuture<RenderJob> future : band) {
+            try {
+                tiles.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof CancellationException) throw (CancellationException) e.getCause();
+                throw e;
+            }
+        }
+
+        int[] row = new int[width];
+        for (int dy = 0; dy < h; dy++) {
+            for (int i = 0; i < tiles.size(); i++) {
+                RenderJob tile = tiles.get(i);
+                for (int dx = 0; dx < tile.getWidth(); dx++) {
+                    row[i * tileSize + dx] = tile.getColor(dx, dy).getRGB();
+                }
+            }
+            sink.writeRow(row);
+            rowsWritten.incrementAndGet();
+        }
+        jobs.subList(0, tiles.size()).clear();
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (RenderJob job : jobs) job.cancel();
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public ReferenceContext getContext() {
+        return context;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,56 @@
+package hywt.maplemandel.core;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// 使用jdk.incubator.vector的实现，通道数为本机首选的double向量长度（AVX2为4，AVX-512为8）
+// 各通道的参考位置不同，参考轨道按ref做gather读取；运行时需要--add-modules jdk.incubator.vector
+// 只用乘加减而不用fma，舍入与逐像素的getPTIter一致
+class VectorLaneKernel extends LaneKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorLaneKernel() {
+        super(SPECIES.length());
+    }
+
+    // 在LaneKernel初始化时调用，此时SPECIES可能尚未赋值
+    static boolean supported() {
+        return DoubleVector.SPECIES_PREFERRED.length() >= 2;
+    }
+
+    @Override
+    int advance(double[] refRe, double[] refIm, int steps) {
+        DoubleVector dr = DoubleVector.fromArray(SPECIES, dRe, 0);
+        DoubleVector di = DoubleVector.fromArray(SPECIES, dIm, 0);
+        DoubleVector cr = DoubleVector.fromArray(SPECIES, cRe, 0);
+        DoubleVector ci = DoubleVector.fromArray(SPECIES, cIm, 0);
+        DoubleVector vr;
+        DoubleVector vi;
+        double bailout = this.bailout;
+
+        int k = 0;
+        while (true) {
+            DoubleVector zr = DoubleVector.fromArray(SPECIES, refRe, k, ref, 0);
+            DoubleVector zi = DoubleVector.fromArray(SPECIES, refIm, k, ref, 0);
+            DoubleVector tmp = zr.mul(2).add(dr).mul(dr).sub(zi.mul(2).add(di).mul(di)).add(cr);
+            di = zr.mul(di).add(zi.mul(dr)).add(dr.mul(di)).mul(2).add(ci);
+            dr = tmp;
+            k++;
+
+            vr = DoubleVector.fromArray(SPECIES, refRe, k, ref, 0).add(dr);
+            vi = DoubleVector.fromArray(SPECIES, refIm, k, ref, 0).add(di);
+            DoubleVector val = vr.mul(vr).add(vi.mul(vi));
+            VectorMask<Double> event = val.compare(VectorOperators.GT, bailout)
+                    .or(val.compare(VectorOperators.LT, dr.mul(dr).add(di.mul(di))));
+            if (event.anyTrue() || k == steps) break;
+        }
+
+        dr.intoArray(dRe, 0);
+        di.intoArray(dIm, 0);
+        vr.intoArray(valRe, 0);
+        vi.intoArray(valIm, 0);
+        return k;
+    }
+}
@@ -0,0 +1,98 @@
+package hywt.maplemandel.core;
+
+// 从相邻的指数映射行带插值出任意缩放位置的一帧
+// 帧中的像素按到中心的距离换算成行带中的行、按角度换算成列，双线性插值；比最内一行更靠近中心的像素取自最深一帧
+// z为相对最外一帧缩放的倍数取以2为底的对数，z处的一帧用到从第floor(z)条起约log2(帧对角线的像素数)条行带
+final class ZoomFrameGenerator {
+    private final int width;
+    private final int height;
+    private final int shortSide;
+    private final int stripWidth;
+    private final int rowsPerOctave;
+    private final int octaves;
+    private final double cornerFactor;
+    private final double zoomOctaves;
+    // 像素中心到帧中心的最小距离（以帧短边为单位），奇数尺寸时中心像素的距离为0，按半个像素计
+    private final double minDistance;
+
+    ZoomFrameGenerator(ExpMapRenderer renderer) {
+        this.width = renderer.getFrameWidth();
+        this.height = renderer.getFrameHeight();
+        this.shortSide = Math.min(width, height);
+        this.stripWidth = renderer.getStripWidth();
+        this.rowsPerOctave = renderer.getRowsPerOctave();
+        this.octaves = renderer.getOctaves();
+        this.cornerFactor = renderer.getCornerFactor();
+        this.zoomOctaves = renderer.getZoomOctaves();
+        double dx = width % 2 == 0 ? 0.5 : 0;
+        double dy = height % 2 == 0 ? 0.5 : 0;
+        this.minDistance = Math.max(Math.hypot(dx, dy), 0.5) / shortSide;
+    }
+
+    int firstOctave(double z) {
+        return Math.min(octaves - 1, (int) Math.floor(z));
+    }
+
+    // 插值会用到下一行，可能落在下一条行带
+    int lastOctave(double z) {
+        return Math.min(octaves - 1, (int) Math.floor((row(z, minDistance) + 1) / rowsPerOctave));
+    }
+
+    // 行带中的行号，可以带小数
+    private double row(double z, double distance) {
+        return rowsPerOctave * (z + Math.log(cornerFactor / Math.max(distance, minDistance)) / Math.log(2));
+    }
+
+    // strips[k - first]为第k条行带，first为firstOctave(z)
+    void frameRow(double z, int[][] strips, int first, int[] keyframe, int y, int[] out) {
+        int lastRow = octaves * rowsPerOctave - 1;
+        double dy = height / 2.0 - (y + 0.5);
+        // 最深一帧相对当前帧放大的倍数
+        double zoom = Math.pow(2, zoomOctaves - z);
+        for (int x = 0; x < width; x++) {
+            double dx = x + 0.5 - width / 2.0;
+            double t = row(z, Math.hypot(dx, dy) / shortSide);
+            if (t > lastRow) {
+                out[x] = sample(keyframe, width, height, width / 2.0 + dx * zoom - 0.5, height / 2.0 - dy * zoom - 0.5);
+                continue;
+            }
+            double theta = Math.atan2(dy, dx);
+            if (theta < 0) theta += 2 * Math.PI;
+            double col = theta / (2 * Math.PI) * stripWidth - 0.5;
+            int r0 = (int) t;
+            int r1 = Math.min(r0 + 1, lastRow);
+            int[] s0 = strips[r0 / rowsPerOctave - first];
+            int[] s1 = strips[r1 / rowsPerOctave - first];
+            int c0 = (int) Math.floor(col);
+            double fc = col - c0;
+            int c1 = c0 + 1;
+            if (c0 < 0) c0 += stripWidth;
+            if (c1 >= stripWidth) c1 -= stripWidth;
+            int o0 = (r0 % rowsPerOctave) * stripWidth;
+            int o1 = (r1 % rowsPerOctave) * stripWidth;
+            out[x] = mix(s0[o0 + c0], s0[o0 + c1], s1[o1 + c0], s1[o1 + c1], fc, t - r0);
+        }
+    }
+
+    // 按像素坐标双线性取样，超出边界的取最近的像素
+    private static int sample(int[] pixels, int w, int h, double x, double y) {
+        x = Math.max(0, Math.min(w - 1, x));
+        y = Math.max(0, Math.min(h - 1, y));
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int x1 = Math.min(x0 + 1, w - 1);
+        int y1 = Math.min(y0 + 1, h - 1);
+        return mix(pixels[y0 * w + x0], pixels[y0 * w + x1], pixels[y1 * w + x0], pixels[y1 * w + x1], x - x0, y - y0);
+    }
+
+    // a、b为上一行的左右两点，c、d为下一行
+    private static int mix(int a, int b, int c, int d, double fx, double fy) {
+        int rgb = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            double top = ((a >> shift) & 0xff) * (1 - fx) + ((b >> shift) & 0xff) * fx;
+            double bottom = ((c >> shift) & 0xff) * (1 - fx) + ((d >> shift) & 0xff) * fx;
+            rgb |= (int) Math.round(top * (1 - fy) + bottom * fy) << shift;
+        }
+        return rgb;
+    }
+}
@@ -0,0 +1,111 @@
+package hywt.maplemandel.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// 从外到内的缩放视频，每倍缩放framesPerOctave帧
+// 行带按需绘制，不再被后续帧用到的行带在用到它的帧写出后释放；帧的插值与编码在线程池中并行，按帧号顺序写出
+// 同时在编码的帧不超过线程数的两倍，内存只与帧大小和同时用到的行带数有关，与视频长度无关
+public class ZoomSequence {
+    private final ExpMapRenderer renderer;
+    private final ZoomFrameGenerator generator;
+    private final int framesPerOctave;
+    private final Function<OutputStream, ImageSink> encoder;
+    private final AtomicInteger framesWritten;
+    private volatile boolean cancelled;
+
+    // encoder为每一帧创建编码器，如PngImageSink::new
+    public ZoomSequence(ExpMapRenderer renderer, int framesPerOctave, Function<OutputStream, ImageSink> encoder) {
+        this.renderer = renderer;
+        this.generator = new ZoomFrameGenerator(renderer);
+        this.framesPerOctave = framesPerOctave;
+        this.encoder = encoder;
+        this.framesWritten = new AtomicInteger();
+    }
+
+    public int getFrameCount() {
+        return (int) Math.floor(renderer.getZoomOctaves() * framesPerOctave) + 1;
+    }
+
+    public void render(Executor pool, FrameSink sink) throws IOException {
+        int frames = getFrameCount();
+        int maxInFlight = Runtime.getRuntime().availableProcessors() * 2;
+        CompletableFuture<int[]> keyframe = renderer.renderKeyframe(pool);
+        Map<Integer, CompletableFuture<int[]>> strips = new HashMap<>();
+        ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        for (int i = 0; i < frames; i++) {
+            if (cancelled) throw new CancellationException();
+            double z = Math.min((double) i / framesPerOctave, renderer.getZoomOctaves());
+            int first = generator.firstOctave(z);
+            int last = generator.lastOctave(z);
+            // 帧按从外到内的顺序，更外的行带不会再用到；已提交的帧各自持有用到的行带
+            strips.keySet().removeIf(k -> k < first);
+            CompletableFuture<?>[] deps = new CompletableFuture<?>[last - first + 2];
+            for (int k = first; k <= last; k++) {
+                deps[k - first] = strips.computeIfAbsent(k, octave -> renderer.renderStrip(octave, pool));
+            }
+            deps[deps.length - 1] = keyframe;
+            inFlight.add(CompletableFuture.allOf(deps).thenApplyAsync(v -> {
+                int[][] window = new int[last - first + 1][];
+                for (int k = first; k <= last; k++) window[k - first] = (int[]) deps[k - first].join();
+                return encode(z, window, first, keyframe.join());
+            }, pool));
+            while (inFlight.size() >= maxInFlight) write(inFlight.poll(), next++, sink);
+        }
+        while (!inFlight.isEmpty()) write(inFlight.poll(), next++, sink);
+    }
+
+    private byte[] encode(double z, int[][] window, int first, int[] keyframe) {
+        int width = renderer.getFrameWidth();
+        int height = renderer.getFrameHeight();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageSink image = encoder.apply(out);
+        int[] row = new int[width];
+        try {
+            image.begin(width, height);
+            for (int y = 0; y < height; y++) {
+                if (cancelled) throw new CancellationException();
+                generator.frameRow(z, window, first, keyframe, y, row);
+                image.writeRow(row);
+            }
+            image.finish();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void write(CompletableFuture<byte[]> frame, int index, FrameSink sink) throws IOException {
+        byte[] data;
+        try {
+            data = frame.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CancellationException) throw (CancellationException) e.getCause();
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+        sink.writeFrame(index, data);
+        framesWritten.incrementAndGet();
+    }
+
+    public void cancel() {
+        cancelled = true;
+        renderer.cancel();
+    }
+
+    public int getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    public ExpMapRenderer getRenderer() {
+        return renderer;
+    }
+}
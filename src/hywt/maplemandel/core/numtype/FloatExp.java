@@ -201,6 +201,16 @@ public class FloatExp implements Comparable<FloatExp> {
         return exp;
     }
 
+    public double getBase() {
+        norm();
+        return base;
+    }
+
+    public int getExp() {
+        norm();
+        return exp;
+    }
+
     public FloatExp square() {
         return mul(this);
     }
@@ -209,6 +219,9 @@ public class FloatExp implements Comparable<FloatExp> {
         if (this.base < 0) {
             throw new ArithmeticException("Cannot take square root of a negative number");
         }
+        if (exp % 2 != 0) {
+            return new FloatExp(Math.sqrt(this.base * 10), (this.exp - 1) / 2);
+        }
         return new FloatExp(Math.sqrt(this.base), this.exp / 2);
     }
 